@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import xyz.truenight.latte.Latte;
+
+/**
+ * Adapter resolution: the first {@link Latte#getAdapter(Class)} of a type on a new
+ * {@link Latte}, which builds the adapters of the whole object graph, and a repeated one
+ * that is served from the caches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AdapterBenchmark {
+
+    @State(Scope.Thread)
+    public static class Cold {
+        Latte latte;
+
+        // a new Latte per invocation, the resolution takes long enough for the setup not to skew it
+        @Setup(Level.Invocation)
+        public void setUp() {
+            latte = new Latte();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Warm {
+        Latte latte;
+
+        @Setup
+        public void setUp() {
+            latte = new Latte();
+            latte.getAdapter(Models.Tree.class);
+        }
+    }
+
+    @Benchmark
+    public Object cold(Cold state) {
+        return state.latte.getAdapter(Models.Tree.class);
+    }
+
+    @Benchmark
+    public Object warm(Warm state) {
+        return state.latte.getAdapter(Models.Tree.class);
+    }
+}
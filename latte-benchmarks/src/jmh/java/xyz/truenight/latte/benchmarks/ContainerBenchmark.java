@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import xyz.truenight.latte.Latte;
+import xyz.truenight.latte.UnorderedCollection;
+
+/**
+ * Clone and equal of lists, maps and arrays of {@link Models.Flat} of different sizes,
+ * ordered and {@link UnorderedCollection unordered}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContainerBenchmark {
+
+    /**
+     * Holds the elements of {@link #list} shuffled, compared without regard to order.
+     */
+    static final class Unordered {
+        @UnorderedCollection
+        List<Models.Flat> elements;
+    }
+
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    private List<Models.Flat> list;
+    private List<Models.Flat> listCopy;
+    private Map<String, Models.Flat> map;
+    private Map<String, Models.Flat> mapCopy;
+    private Models.Flat[] array;
+    private Models.Flat[] arrayCopy;
+    private Unordered unordered;
+    private Unordered unorderedCopy;
+
+    @Setup
+    public void setUp() {
+        list = new ArrayList<>(size);
+        map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Models.Flat flat = new Models.Flat(i);
+            list.add(flat);
+            map.put(flat.name, flat);
+        }
+        listCopy = copy(list);
+        mapCopy = new HashMap<>();
+        for (Map.Entry<String, Models.Flat> entry : map.entrySet()) {
+            mapCopy.put(entry.getKey(), new Models.Flat(entry.getValue()));
+        }
+        array = list.toArray(new Models.Flat[size]);
+        arrayCopy = listCopy.toArray(new Models.Flat[size]);
+
+        unordered = new Unordered();
+        unordered.elements = list;
+        unorderedCopy = new Unordered();
+        unorderedCopy.elements = copy(list);
+        Collections.shuffle(unorderedCopy.elements, new Random(size));
+    }
+
+    private static List<Models.Flat> copy(List<Models.Flat> list) {
+        List<Models.Flat> copy = new ArrayList<>(list.size());
+        for (Models.Flat flat : list) {
+            copy.add(new Models.Flat(flat));
+        }
+        return copy;
+    }
+
+    @Benchmark
+    public Object cloneList() {
+        return Latte.clone(list);
+    }
+
+    @Benchmark
+    public Object cloneListBaseline() {
+        return copy(list);
+    }
+
+    @Benchmark
+    public boolean equalList() {
+        return Latte.equal(list, listCopy);
+    }
+
+    @Benchmark
+    public boolean equalListBaseline() {
+        return list.equals(listCopy);
+    }
+
+    @Benchmark
+    public Object cloneMap() {
+        return Latte.clone(map);
+    }
+
+    @Benchmark
+    public boolean equalMap() {
+        return Latte.equal(map, mapCopy);
+    }
+
+    @Benchmark
+    public boolean equalMapBaseline() {
+        return map.equals(mapCopy);
+    }
+
+    @Benchmark
+    public Object cloneArray() {
+        return Latte.clone(array);
+    }
+
+    @Benchmark
+    public boolean equalArray() {
+        return Latte.equal(array, arrayCopy);
+    }
+
+    @Benchmark
+    public boolean equalArrayBaseline() {
+        return Arrays.equals(array, arrayCopy);
+    }
+
+    @Benchmark
+    public boolean equalUnordered() {
+        return Latte.equal(unordered, unorderedCopy);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Models the benchmarks run on, each with a hand-written copy constructor and
+ * {@code equals} as the baseline Latte is measured against.
+ */
+final class Models {
+
+    private Models() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Object with a few primitive and string fields and no nested objects.
+     */
+    static final class Flat {
+        int id;
+        long created;
+        double score;
+        boolean active;
+        String name;
+        String email;
+
+        Flat() {
+        }
+
+        Flat(int id) {
+            this.id = id;
+            this.created = 1480000000000L + id;
+            this.score = id * 0.5;
+            this.active = id % 2 == 0;
+            this.name = "name" + id;
+            this.email = "user" + id + "@example.com";
+        }
+
+        Flat(Flat other) {
+            this.id = other.id;
+            this.created = other.created;
+            this.score = other.score;
+            this.active = other.active;
+            this.name = other.name;
+            this.email = other.email;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Flat flat = (Flat) o;
+            return id == flat.id
+                    && created == flat.created
+                    && Double.compare(flat.score, score) == 0
+                    && active == flat.active
+                    && (name != null ? name.equals(flat.name) : flat.name == null)
+                    && (email != null ? email.equals(flat.email) : flat.email == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+    }
+
+    /**
+     * Node of a tree of objects, every node holds a {@link Flat} and a list of children.
+     */
+    static final class Tree {
+        Flat value;
+        List<Tree> children;
+
+        Tree() {
+        }
+
+        Tree(Tree other) {
+            this.value = new Flat(other.value);
+            this.children = new ArrayList<>(other.children.size());
+            for (Tree child : other.children) {
+                this.children.add(new Tree(child));
+            }
+        }
+
+        /**
+         * Builds a complete tree of the given depth with {@code fanOut} children per node.
+         */
+        static Tree create(int depth, int fanOut) {
+            Tree tree = new Tree();
+            tree.value = new Flat(depth);
+            tree.children = new ArrayList<>(fanOut);
+            if (depth > 1) {
+                for (int i = 0; i < fanOut; i++) {
+                    tree.children.add(create(depth - 1, fanOut));
+                }
+            }
+            return tree;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Tree tree = (Tree) o;
+            return value.equals(tree.value) && children.equals(tree.children);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import xyz.truenight.latte.Latte;
+
+/**
+ * Clone and equal of a flat object and of a deep object tree, against the hand-written
+ * copy constructors and {@code equals} of {@link Models}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PojoBenchmark {
+
+    private Models.Flat flat;
+    private Models.Flat flatCopy;
+    private Models.Tree tree;
+    private Models.Tree treeCopy;
+
+    @Setup
+    public void setUp() {
+        flat = new Models.Flat(42);
+        flatCopy = new Models.Flat(flat);
+        // 1 + 4 + 16 + ... + 4^6 = 5461 nodes
+        tree = Models.Tree.create(7, 4);
+        treeCopy = new Models.Tree(tree);
+    }
+
+    @Benchmark
+    public Object cloneFlat() {
+        return Latte.clone(flat);
+    }
+
+    @Benchmark
+    public Object cloneFlatBaseline() {
+        return new Models.Flat(flat);
+    }
+
+    @Benchmark
+    public boolean equalFlat() {
+        return Latte.equal(flat, flatCopy);
+    }
+
+    @Benchmark
+    public boolean equalFlatBaseline() {
+        return flat.equals(flatCopy);
+    }
+
+    @Benchmark
+    public Object cloneTree() {
+        return Latte.clone(tree);
+    }
+
+    @Benchmark
+    public Object cloneTreeBaseline() {
+        return new Models.Tree(tree);
+    }
+
+    @Benchmark
+    public boolean equalTree() {
+        return Latte.equal(tree, treeCopy);
+    }
+
+    @Benchmark
+    public boolean equalTreeBaseline() {
+        return tree.equals(treeCopy);
+    }
+}
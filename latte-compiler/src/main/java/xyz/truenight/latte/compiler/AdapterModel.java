@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte.compiler;
+
+import java.util.List;
+
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Class annotated with {@code GenerateAdapter} together with the fields its adapter handles.
+ */
+final class AdapterModel {
+    final TypeElement type;
+    final String packageName;
+    final String adapterName;
+    final List<FieldModel> fields;
+
+    AdapterModel(TypeElement type, String packageName, String adapterName, List<FieldModel> fields) {
+        this.type = type;
+        this.packageName = packageName;
+        this.adapterName = adapterName;
+        this.fields = fields;
+    }
+
+    String typeName() {
+        return type.getQualifiedName().toString();
+    }
+
+    boolean usesReflection() {
+        for (FieldModel field : fields) {
+            if (field.needsField()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
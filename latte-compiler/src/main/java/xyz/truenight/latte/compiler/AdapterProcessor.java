@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import xyz.truenight.latte.GenerateAdapter;
+
+/**
+ * Generates a {@code TypeAdapter} for every class annotated with {@link GenerateAdapter}
+ * and one {@code AdapterRegistry} per package listing them.
+ */
+public final class AdapterProcessor extends AbstractProcessor {
+
+    private static final String SERVICE_FILE = "META-INF/services/xyz.truenight.latte.AdapterRegistry";
+
+    private Filer filer;
+    private Messager messager;
+    private Elements elements;
+    private Types types;
+
+    /**
+     * Generated adapters not listed by a registry yet, by package. Registries are written in
+     * the first round that finds no new adapters, so they are compiled like any other
+     * generated source.
+     */
+    private final Map<String, List<AdapterModel>> adapters = new LinkedHashMap<>();
+
+    /**
+     * Registries written so far, listed in the service file once processing is over.
+     */
+    private final Set<String> registries = new TreeSet<>();
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        filer = processingEnv.getFiler();
+        messager = processingEnv.getMessager();
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(GenerateAdapter.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        boolean found = false;
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateAdapter.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@GenerateAdapter can only be applied to classes");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            if (!validate(type)) {
+                continue;
+            }
+            AdapterModel model = new AdapterModel(type, packageOf(type), adapterName(type), collectFields(type));
+            try {
+                writeAdapter(model);
+            } catch (IOException e) {
+                error(type, "Unable to write adapter: " + e.getMessage());
+                continue;
+            }
+            List<AdapterModel> models = adapters.get(model.packageName);
+            if (models == null) {
+                models = new ArrayList<>();
+                adapters.put(model.packageName, models);
+            }
+            models.add(model);
+            found = true;
+        }
+
+        try {
+            if (!found && !adapters.isEmpty()) {
+                writeRegistries();
+                adapters.clear();
+            }
+            if (roundEnv.processingOver() && !registries.isEmpty()) {
+                writeServiceFile();
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Unable to write adapter registry: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private boolean validate(TypeElement type) {
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT)) {
+            error(type, "@GenerateAdapter class must not be abstract");
+            return false;
+        }
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            error(type, "@GenerateAdapter class must not be private");
+            return false;
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            error(type, "@GenerateAdapter class must not be generic");
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC)) {
+            error(type, "@GenerateAdapter class must be static");
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+            error(type, "@GenerateAdapter class must not be local or anonymous");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Mirrors {@code ReflectiveAdapter.getBoundFields}: fields of the class first, then of its
+     * superclasses, without static, transient and completely ignored fields.
+     */
+    private List<FieldModel> collectFields(TypeElement type) {
+        String packageName = packageOf(type);
+        DeclaredType owner = (DeclaredType) type.asType();
+        List<FieldModel> result = new ArrayList<>();
+        TypeElement current = type;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                FieldModel model = new FieldModel(this, field, current,
+                        types.asMemberOf(owner, field), packageName);
+                if (model.ignoreEqual && model.ignoreClone) {
+                    continue;
+                }
+                result.add(model);
+            }
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED
+                    ? (TypeElement) ((DeclaredType) superclass).asElement()
+                    : null;
+        }
+        return result;
+    }
+
+    private void writeAdapter(AdapterModel model) throws IOException {
+        String qualifiedName = model.packageName.isEmpty()
+                ? model.adapterName
+                : model.packageName + "." + model.adapterName;
+        Writer writer = filer.createSourceFile(qualifiedName, model.type).openWriter();
+        try {
+            writer.write(new AdapterWriter(model).write());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeRegistries() throws IOException {
+        for (Map.Entry<String, List<AdapterModel>> entry : adapters.entrySet()) {
+            String packageName = entry.getKey();
+            List<AdapterModel> models = entry.getValue();
+            String registryName = registryName(models);
+            String qualifiedName = packageName.isEmpty() ? registryName : packageName + "." + registryName;
+
+            Element[] originating = new Element[models.size()];
+            for (int i = 0; i < models.size(); i++) {
+                originating[i] = models.get(i).type;
+            }
+            Writer writer = filer.createSourceFile(qualifiedName, originating).openWriter();
+            try {
+                writer.write(AdapterWriter.writeRegistry(packageName, registryName, models));
+            } finally {
+                writer.close();
+            }
+            registries.add(qualifiedName);
+        }
+    }
+
+    private void writeServiceFile() throws IOException {
+        FileObject services = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+        Writer writer = services.openWriter();
+        try {
+            for (String registry : registries) {
+                writer.write(registry);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Registries of different modules may share a package, so the name is derived from the
+     * adapters it lists.
+     */
+    private static String registryName(List<AdapterModel> models) {
+        Set<String> names = new TreeSet<>();
+        for (AdapterModel model : models) {
+            names.add(model.type.getQualifiedName().toString());
+        }
+        return "LatteAdapters_" + Integer.toHexString(names.toString().hashCode() & 0x7fffffff);
+    }
+
+    String packageOf(Element element) {
+        PackageElement pkg = elements.getPackageOf(element);
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    /**
+     * Name of the adapter of {@code type} as described by {@link GenerateAdapter#SUFFIX}.
+     */
+    private String adapterName(TypeElement type) {
+        String packageName = packageOf(type);
+        String qualifiedName = type.getQualifiedName().toString();
+        String simpleNames = packageName.isEmpty() ? qualifiedName : qualifiedName.substring(packageName.length() + 1);
+        return simpleNames.replace('.', GenerateAdapter.SEPARATOR) + GenerateAdapter.SUFFIX;
+    }
+
+    /**
+     * Binary name usable with {@link Class#forName(String)}.
+     */
+    String binaryName(TypeElement type) {
+        return elements.getBinaryName(type).toString();
+    }
+
+    Types types() {
+        return types;
+    }
+
+    private void error(Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,441 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Writes the source of a generated adapter and of a package registry.
+ */
+final class AdapterWriter {
+
+    private static final String LATTE = "xyz.truenight.latte.";
+
+    private static final Comparator<FieldModel> BY_COST = new Comparator<FieldModel>() {
+        @Override
+        public int compare(FieldModel lhs, FieldModel rhs) {
+            return lhs.cost < rhs.cost ? -1 : (lhs.cost == rhs.cost ? 0 : 1);
+        }
+    };
+
+    private final AdapterModel model;
+    private final StringBuilder out = new StringBuilder();
+
+    AdapterWriter(AdapterModel model) {
+        this.model = model;
+    }
+
+    String write() {
+        String type = model.typeName();
+        header(model.packageName);
+        line("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+        line("public final class " + model.adapterName + " extends " + LATTE + "GeneratedAdapter<" + type + "> {");
+        line("    private static final java.lang.String[] NAMES = {" + names() + "};");
+        line("    private static final int[] EQUALITY_PLAN = {" + indexes(equalityPlan()) + "};");
+        line("    private static final int[] CLONE_PLAN = {" + indexes(clonePlan()) + "};");
+        line("");
+        for (FieldModel field : model.fields) {
+            if (field.needsField()) {
+                line("    private final java.lang.reflect.Field " + name("f", field) + ";");
+            }
+            if (needsAdapter(field)) {
+                line("    private final " + LATTE + "TypeAdapter " + name("a", field) + ";");
+            }
+        }
+        line("");
+        writeConstructor(type);
+        line("");
+        writeEqual(type);
+        line("");
+        writeClone(type);
+        line("");
+        writeHash(type);
+        line("");
+        writeAccessors(type);
+        if (model.usesReflection()) {
+            line("");
+            line("    private static java.lang.reflect.Field field(java.lang.String className, java.lang.String name) {");
+            line("        try {");
+            line("            java.lang.reflect.Field field = java.lang.Class.forName(className).getDeclaredField(name);");
+            line("            field.setAccessible(true);");
+            line("            return field;");
+            line("        } catch (java.lang.ClassNotFoundException | java.lang.NoSuchFieldException e) {");
+            line("            throw new java.lang.AssertionError(e);");
+            line("        }");
+            line("    }");
+        }
+        line("}");
+        return out.toString();
+    }
+
+    private void writeConstructor(String type) {
+        line("    public " + model.adapterName + "(" + LATTE + "Latte latte) {");
+        line("        super(latte, " + type + ".class, NAMES, EQUALITY_PLAN, CLONE_PLAN);");
+        for (FieldModel field : model.fields) {
+            if (field.needsField()) {
+                line("        " + name("f", field) + " = field(\"" + field.declaringClass + "\", \"" + field.name + "\");");
+            }
+        }
+        for (FieldModel field : model.fields) {
+            if (!needsAdapter(field)) {
+                continue;
+            }
+            String token = name("t", field);
+            line("        " + LATTE + "TypeToken " + token + " = " + typeToken(field.type) + ";");
+            String adapter;
+            if (field.unorderedCollection) {
+                adapter = "latte.getAnnotationTypeAdapter(" + token + ", " + name("f", field)
+                        + ".getAnnotation(" + LATTE + "UnorderedCollection.class))";
+            } else if (field.useAdapter) {
+                adapter = "latte.getAnnotationTypeAdapter(" + token + ", " + name("f", field)
+                        + ".getAnnotation(" + LATTE + "UseAdapter.class))";
+            } else {
+                adapter = "latte.getAdapter(" + token + ")";
+            }
+            if (!field.monomorphic) {
+                adapter = "new " + LATTE + "TypeAdapterRuntimeTypeWrapper(latte, " + adapter + ", " + token + ".getType())";
+            }
+            line("        " + name("a", field) + " = " + adapter + ";");
+        }
+        line("    }");
+    }
+
+    /**
+     * Inline fields get an adapter too if they are compared or cloned, the base class diffs and
+     * copies them boxed.
+     */
+    private static boolean needsAdapter(FieldModel field) {
+        return field.hasAdapter() || !field.ignoreEqual || !field.ignoreClone;
+    }
+
+    /**
+     * Compared fields, cheapest first.
+     */
+    private List<FieldModel> equalityPlan() {
+        List<FieldModel> plan = new ArrayList<>();
+        for (FieldModel field : model.fields) {
+            if (!field.ignoreEqual) {
+                plan.add(field);
+            }
+        }
+        // stable, so fields of the same cost keep declaration order
+        Collections.sort(plan, BY_COST);
+        return plan;
+    }
+
+    /**
+     * Cloned fields in declaration order.
+     */
+    private List<FieldModel> clonePlan() {
+        List<FieldModel> plan = new ArrayList<>();
+        for (FieldModel field : model.fields) {
+            if (!field.ignoreClone) {
+                plan.add(field);
+            }
+        }
+        return plan;
+    }
+
+    private String names() {
+        StringBuilder names = new StringBuilder();
+        for (FieldModel field : model.fields) {
+            if (names.length() > 0) {
+                names.append(", ");
+            }
+            names.append('"').append(field.name).append('"');
+        }
+        return names.toString();
+    }
+
+    private String indexes(List<FieldModel> plan) {
+        StringBuilder indexes = new StringBuilder();
+        for (FieldModel field : plan) {
+            if (indexes.length() > 0) {
+                indexes.append(", ");
+            }
+            indexes.append(model.fields.indexOf(field));
+        }
+        return indexes.toString();
+    }
+
+    private void writeEqual(String type) {
+        line("    @Override");
+        line("    protected java.lang.String equalFields(" + type + " a, " + type + " b) throws java.lang.IllegalAccessException {");
+        for (FieldModel field : equalityPlan()) {
+            if (field.isInline()) {
+                line("        if (" + primitiveNotEqual(field, "a", "b") + ") {");
+            } else {
+                line("        if (!" + name("a", field) + ".equal(" + readObject(field, "a") + ", " + readObject(field, "b") + ")) {");
+            }
+            line("            return \"" + field.name + "\";");
+            line("        }");
+        }
+        line("        return null;");
+        line("    }");
+    }
+
+    private String primitiveNotEqual(FieldModel field, String a, String b) {
+        String kind = field.type.getKind().name();
+        String av = readPrimitive(field, a);
+        String bv = readPrimitive(field, b);
+        if (kind.equals("DOUBLE")) {
+            return "java.lang.Double.doubleToLongBits(" + av + ") != java.lang.Double.doubleToLongBits(" + bv + ")";
+        } else if (kind.equals("FLOAT")) {
+            return "java.lang.Float.floatToIntBits(" + av + ") != java.lang.Float.floatToIntBits(" + bv + ")";
+        }
+        return av + " != " + bv;
+    }
+
+    private void writeClone(String type) {
+        line("    @Override");
+        line("    protected void cloneFields(" + type + " value, " + type + " copy) throws java.lang.IllegalAccessException {");
+        String indent = "        ";
+        for (FieldModel field : clonePlan()) {
+            if (field.isInline()) {
+                String value = readPrimitive(field, "value");
+                if (field.directWrite) {
+                    line(indent + member(field, "copy") + " = " + value + ";");
+                } else {
+                    line(indent + name("f", field) + ".set" + accessor(field.type) + "(copy, " + value + ");");
+                }
+                continue;
+            }
+            String cloned = name("c", field);
+            line(indent + "java.lang.Object " + cloned + " = " + name("a", field) + ".clone(" + readObject(field, "value") + ");");
+            String assignment = write(field, "copy", cloned);
+            if (field.isPrimitive()) {
+                line(indent + "if (" + cloned + " != null) {");
+                line(indent + "    " + assignment);
+                line(indent + "}");
+            } else {
+                line(indent + assignment);
+            }
+        }
+        line("    }");
+    }
+
+    /**
+     * Same combination as {@code ReflectiveAdapter.hash}: compared fields in plan order,
+     * primitives hash like their boxed values.
+     */
+    private void writeHash(String type) {
+        line("    @Override");
+        line("    protected int hashFields(" + type + " value) throws java.lang.IllegalAccessException {");
+        line("        int hash = 1;");
+        String indent = "        ";
+        for (FieldModel field : equalityPlan()) {
+            if (field.isInline()) {
+                String v = readPrimitive(field, "value");
+                String kind = field.type.getKind().name();
+                String hash;
+                if (kind.equals("LONG") || kind.equals("DOUBLE")) {
+                    String bits = name("bits", field);
+                    line(indent + "long " + bits + " = " + (kind.equals("DOUBLE")
+                            ? "java.lang.Double.doubleToLongBits(" + v + ")"
+                            : v) + ";");
+                    hash = "(int) (" + bits + " ^ (" + bits + " >>> 32))";
+                } else if (kind.equals("FLOAT")) {
+                    hash = "java.lang.Float.floatToIntBits(" + v + ")";
+                } else if (kind.equals("BOOLEAN")) {
+                    hash = "(" + v + " ? 1231 : 1237)";
+                } else {
+                    hash = v;
+                }
+                line(indent + "hash = 31 * hash + " + hash + ";");
+            } else {
+                line(indent + "hash = 31 * hash + hash(" + name("a", field) + ", " + readObject(field, "value") + ");");
+            }
+        }
+        line("        return hash;");
+        line("    }");
+    }
+
+    /**
+     * Indexed access used by the base class to diff and copy fields.
+     */
+    private void writeAccessors(String type) {
+        List<FieldModel> used = new ArrayList<>();
+        for (FieldModel field : model.fields) {
+            if (!field.ignoreEqual || !field.ignoreClone) {
+                used.add(field);
+            }
+        }
+
+        line("    @Override");
+        line("    protected " + LATTE + "TypeAdapter<java.lang.Object> adapter(int field) {");
+        line("        switch (field) {");
+        for (FieldModel field : used) {
+            line("            case " + model.fields.indexOf(field) + ":");
+            line("                return " + name("a", field) + ";");
+        }
+        line("            default:");
+        line("                throw new java.lang.IndexOutOfBoundsException(java.lang.String.valueOf(field));");
+        line("        }");
+        line("    }");
+        line("");
+        line("    @Override");
+        line("    protected java.lang.Object get(int field, " + type + " value) throws java.lang.IllegalAccessException {");
+        line("        switch (field) {");
+        for (FieldModel field : used) {
+            line("            case " + model.fields.indexOf(field) + ":");
+            line("                return " + readObject(field, "value") + ";");
+        }
+        line("            default:");
+        line("                throw new java.lang.IndexOutOfBoundsException(java.lang.String.valueOf(field));");
+        line("        }");
+        line("    }");
+        line("");
+        line("    @Override");
+        line("    protected void set(int field, " + type + " value, java.lang.Object fieldValue) throws java.lang.IllegalAccessException {");
+        line("        switch (field) {");
+        for (FieldModel field : clonePlan()) {
+            line("            case " + model.fields.indexOf(field) + ":");
+            line("                " + write(field, "value", "fieldValue"));
+            line("                return;");
+        }
+        line("            default:");
+        line("                throw new java.lang.IndexOutOfBoundsException(java.lang.String.valueOf(field));");
+        line("        }");
+        line("    }");
+    }
+
+    /**
+     * Statement storing the object {@code value} into {@code field} of {@code owner}, unboxed
+     * for primitives.
+     */
+    private String write(FieldModel field, String owner, String value) {
+        if (field.directWrite) {
+            String cast = field.isPrimitive() ? boxed(field.type) : field.type.toString();
+            return member(field, owner) + " = (" + cast + ") " + value + ";";
+        }
+        return name("f", field) + ".set(" + owner + ", " + value + ");";
+    }
+
+    static String writeRegistry(String packageName, String registryName, List<AdapterModel> models) {
+        AdapterWriter writer = new AdapterWriter(null);
+        writer.header(packageName);
+        writer.line("public final class " + registryName + " implements " + LATTE + "AdapterRegistry {");
+        writer.line("    @Override");
+        writer.line("    public " + LATTE + "TypeAdapter<?> create(" + LATTE + "Latte latte, java.lang.Class<?> type) {");
+        for (AdapterModel model : models) {
+            writer.line("        if (type == " + model.typeName() + ".class) {");
+            writer.line("            return new " + model.adapterName + "(latte);");
+            writer.line("        }");
+        }
+        writer.line("        return null;");
+        writer.line("    }");
+        writer.line("}");
+        return writer.out.toString();
+    }
+
+    private String readPrimitive(FieldModel field, String owner) {
+        return field.directRead
+                ? member(field, owner)
+                : name("f", field) + ".get" + accessor(field.type) + "(" + owner + ")";
+    }
+
+    private String readObject(FieldModel field, String owner) {
+        return field.directRead
+                ? member(field, owner)
+                : name("f", field) + ".get(" + owner + ")";
+    }
+
+    /**
+     * Name of a member or local generated for {@code field}. Names are made from the index of
+     * the field, as fields of superclasses may share a name.
+     */
+    private String name(String prefix, FieldModel field) {
+        return prefix + model.fields.indexOf(field);
+    }
+
+    /**
+     * Direct access to {@code field} of {@code owner}. A field hidden by a field of the same name
+     * in a subclass is reached through its declaring class.
+     */
+    private String member(FieldModel field, String owner) {
+        for (FieldModel other : model.fields) {
+            if (other == field) {
+                return owner + "." + field.name;
+            }
+            if (other.name.equals(field.name)) {
+                return "((" + field.declaringType + ") " + owner + ")." + field.name;
+            }
+        }
+        throw new IllegalArgumentException(field.name);
+    }
+
+    /**
+     * Expression creating a {@code TypeToken} for {@code type}. Raw types use a class literal,
+     * parameterized ones an anonymous subclass.
+     */
+    private static String typeToken(TypeMirror type) {
+        if (isRaw(type)) {
+            return LATTE + "TypeToken.get(" + type + ".class)";
+        }
+        return "new " + LATTE + "TypeToken<" + type + ">() {}";
+    }
+
+    private static boolean isRaw(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return true;
+        }
+        if (type.getKind() == TypeKind.ARRAY) {
+            return isRaw(((ArrayType) type).getComponentType());
+        }
+        return type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).getTypeArguments().isEmpty();
+    }
+
+    /**
+     * Suffix of the typed {@link java.lang.reflect.Field} accessors, {@code Int} for {@code getInt}.
+     */
+    private static String accessor(TypeMirror type) {
+        String kind = type.getKind().name();
+        return kind.charAt(0) + kind.substring(1).toLowerCase(Locale.US);
+    }
+
+    private static String boxed(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return "java.lang.Integer";
+            case CHAR:
+                return "java.lang.Character";
+            default:
+                return "java.lang." + accessor(type);
+        }
+    }
+
+    private void header(String packageName) {
+        line("// Generated by latte-compiler. Do not modify.");
+        if (!packageName.isEmpty()) {
+            line("package " + packageName + ";");
+        }
+        line("");
+    }
+
+    private void line(String line) {
+        out.append(line).append('\n');
+    }
+}
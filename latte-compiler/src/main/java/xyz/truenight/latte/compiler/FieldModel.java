@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte.compiler;
+
+import java.util.Set;
+
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+import xyz.truenight.latte.IgnoreField;
+import xyz.truenight.latte.UnorderedCollection;
+import xyz.truenight.latte.UseAdapter;
+
+/**
+ * Field of a generated adapter. Mirrors the decisions {@code ReflectiveAdapter} makes at runtime:
+ * ignore flags, annotation adapters, static dispatch and comparison cost.
+ */
+final class FieldModel {
+    final String name;
+    final String declaringClass;
+    final String declaringType;
+    final TypeMirror type;
+    final boolean ignoreEqual;
+    final boolean ignoreClone;
+    final boolean useAdapter;
+    final boolean unorderedCollection;
+    final boolean directRead;
+    final boolean directWrite;
+    final boolean monomorphic;
+    final int cost;
+
+    FieldModel(AdapterProcessor processor, VariableElement field,
+               TypeElement declaringType, TypeMirror type, String packageName) {
+        Types types = processor.types();
+        this.name = field.getSimpleName().toString();
+        this.declaringClass = processor.binaryName(declaringType);
+        this.declaringType = declaringType.getQualifiedName().toString();
+        this.type = type;
+
+        IgnoreField ignore = field.getAnnotation(IgnoreField.class);
+        this.ignoreEqual = ignore != null && ignore.ignoreEqual();
+        this.ignoreClone = ignore != null && ignore.ignoreClone();
+        this.useAdapter = field.getAnnotation(UseAdapter.class) != null;
+        this.unorderedCollection = field.getAnnotation(UnorderedCollection.class) != null;
+
+        Set<Modifier> modifiers = field.getModifiers();
+        boolean samePackage = processor.packageOf(declaringType).equals(packageName);
+        this.directRead = !modifiers.contains(Modifier.PRIVATE)
+                && (samePackage || modifiers.contains(Modifier.PUBLIC) && isPublic(declaringType));
+        this.directWrite = directRead && !modifiers.contains(Modifier.FINAL);
+
+        this.monomorphic = isMonomorphic(type);
+        this.cost = costOf(types, type);
+    }
+
+    boolean isPrimitive() {
+        return type.getKind().isPrimitive();
+    }
+
+    /**
+     * Primitive fields without annotation adapters are compared and copied inline.
+     */
+    boolean isInline() {
+        return isPrimitive() && !useAdapter && !unorderedCollection;
+    }
+
+    boolean hasAdapter() {
+        return !isInline();
+    }
+
+    /**
+     * Whether the generated code needs a {@link java.lang.reflect.Field} for this field.
+     */
+    boolean needsField() {
+        return useAdapter || unorderedCollection
+                || (!ignoreEqual && !directRead)
+                || (!ignoreClone && !directWrite);
+    }
+
+    private static boolean isPublic(TypeElement type) {
+        while (type != null) {
+            if (!type.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+            type = type.getEnclosingElement() instanceof TypeElement
+                    ? (TypeElement) type.getEnclosingElement()
+                    : null;
+        }
+        return true;
+    }
+
+    private static boolean isMonomorphic(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return true;
+        }
+        if (type.getKind() == TypeKind.ARRAY) {
+            return ((ArrayType) type).getComponentType().getKind().isPrimitive();
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            return element.getKind() == ElementKind.ENUM || element.getModifiers().contains(Modifier.FINAL);
+        }
+        return false;
+    }
+
+    /**
+     * Same tiers as {@code ReflectiveAdapter.costOf}.
+     */
+    private static int costOf(Types types, TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return 0;
+        }
+        if (type.getKind() == TypeKind.ARRAY) {
+            return 3;
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return 2;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        String name = element.getQualifiedName().toString();
+        try {
+            types.unboxedType(type);
+            return 0;
+        } catch (IllegalArgumentException e) {
+            // not a wrapper type
+        }
+        if (name.equals("java.lang.String") || element.getKind() == ElementKind.ENUM) {
+            return 1;
+        }
+        if (isSubtypeOf(types, element, "java.util.Collection") || isSubtypeOf(types, element, "java.util.Map")) {
+            return 3;
+        }
+        return 2;
+    }
+
+    private static boolean isSubtypeOf(Types types, TypeElement element, String name) {
+        if (element.getQualifiedName().contentEquals(name)) {
+            return true;
+        }
+        for (TypeMirror supertype : types.directSupertypes(element.asType())) {
+            if (supertype.getKind() == TypeKind.DECLARED
+                    && isSubtypeOf(types, (TypeElement) ((DeclaredType) supertype).asElement(), name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
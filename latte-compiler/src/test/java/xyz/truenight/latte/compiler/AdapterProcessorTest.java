@@ -0,0 +1,267 @@
+package xyz.truenight.latte.compiler;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import xyz.truenight.latte.GeneratedAdapter;
+import xyz.truenight.latte.InstanceCreator;
+import xyz.truenight.latte.Latte;
+import xyz.truenight.latte.ReflectiveAdapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles a sample model with {@link AdapterProcessor} and checks that the generated adapters
+ * agree with {@link ReflectiveAdapter}.
+ */
+public class AdapterProcessorTest {
+
+    private static final int VARIANTS = 7;
+
+    private static final String ORDER = ""
+            + "package sample;\n"
+            + "\n"
+            + "import java.util.ArrayList;\n"
+            + "import java.util.HashMap;\n"
+            + "import java.util.List;\n"
+            + "import java.util.Map;\n"
+            + "\n"
+            + "import xyz.truenight.latte.GenerateAdapter;\n"
+            + "import xyz.truenight.latte.IgnoreField;\n"
+            + "import xyz.truenight.latte.UnorderedCollection;\n"
+            + "\n"
+            + "@GenerateAdapter\n"
+            + "public class Order {\n"
+            + "    enum Status { NEW, PAID }\n"
+            + "\n"
+            + "    @GenerateAdapter\n"
+            + "    public static class Item {\n"
+            + "        int id;\n"
+            + "        String label;\n"
+            + "    }\n"
+            + "\n"
+            + "    int id;\n"
+            + "    private double total;\n"
+            + "    final String name;\n"
+            + "    Status status = Status.NEW;\n"
+            + "    List<Item> items = new ArrayList<Item>();\n"
+            + "    @UnorderedCollection\n"
+            + "    List<String> tags = new ArrayList<String>();\n"
+            + "    Map<String, Item> byName = new HashMap<String, Item>();\n"
+            + "    @IgnoreField(ignoreClone = false)\n"
+            + "    long version;\n"
+            + "    Order parent;\n"
+            + "    Object note;\n"
+            + "\n"
+            + "    public Order(String name) {\n"
+            + "        this.name = name;\n"
+            + "    }\n"
+            + "\n"
+            + "    public static Order sample(int variant) {\n"
+            + "        Order order = new Order(variant == 6 ? \"renamed\" : \"order\");\n"
+            + "        order.id = 1;\n"
+            + "        order.total = variant == 1 ? 3.5 : 2.5;\n"
+            + "        order.version = variant;\n"
+            + "        Item shared = new Item();\n"
+            + "        shared.id = 7;\n"
+            + "        shared.label = variant == 2 ? \"changed\" : \"shared\";\n"
+            + "        order.items.add(shared);\n"
+            + "        order.items.add(shared);\n"
+            + "        order.byName.put(\"shared\", shared);\n"
+            + "        order.tags.add(variant == 3 ? \"b\" : \"a\");\n"
+            + "        order.tags.add(variant == 3 ? \"a\" : \"b\");\n"
+            + "        order.parent = variant == 5 ? new Order(\"other\") : order;\n"
+            + "        order.note = variant == 4 ? (Object) 4 : \"note\";\n"
+            + "        return order;\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String SHADOWED = ""
+            + "package sample;\n"
+            + "\n"
+            + "import xyz.truenight.latte.GenerateAdapter;\n"
+            + "\n"
+            + "public class Shadowed {\n"
+            + "    public static class Base {\n"
+            + "        int x;\n"
+            + "        String label;\n"
+            + "    }\n"
+            + "\n"
+            + "    @GenerateAdapter\n"
+            + "    public static class Child extends Base {\n"
+            + "        int x;\n"
+            + "        String label;\n"
+            + "\n"
+            + "        public static Child sample(int base, int own) {\n"
+            + "            Child child = new Child();\n"
+            + "            ((Base) child).x = base;\n"
+            + "            ((Base) child).label = \"base\" + base;\n"
+            + "            child.x = own;\n"
+            + "            child.label = \"own\" + own;\n"
+            + "            return child;\n"
+            + "        }\n"
+            + "    }\n"
+            + "}\n";
+
+    @Test
+    public void generatedAdaptersMatchReflectionTest() throws Exception {
+        Class<?> order = compile("Order", ORDER).loadClass("sample.Order");
+
+        Latte generated = new Latte.Builder().generatedAdapters(true).create();
+        Latte reflective = new Latte();
+        assertTrue(generated.getAdapter(order) instanceof GeneratedAdapter);
+        assertTrue(reflective.getAdapter(order) instanceof ReflectiveAdapter);
+
+        for (int i = 0; i < VARIANTS; i++) {
+            for (int j = 0; j < VARIANTS; j++) {
+                Object a = sample(order, i);
+                Object b = sample(order, j);
+                String pair = i + " vs " + j;
+                assertEquals(pair, reflective.isEqual(a, b), generated.isEqual(a, b));
+                assertEquals(pair, reflective.diffItem(a, b), generated.diffItem(a, b));
+            }
+            Object value = sample(order, i);
+            assertEquals(reflective.hashItem(value), generated.hashItem(value));
+        }
+        // variants that differ only in unordered or ignored fields
+        assertTrue(generated.isEqual(sample(order, 0), sample(order, 3)));
+        assertEquals(Arrays.asList("total"), generated.diffItem(sample(order, 0), sample(order, 1)));
+    }
+
+    @Test
+    public void generatedCloneTest() throws Exception {
+        Class<?> order = compile("Order", ORDER).loadClass("sample.Order");
+        Latte generated = new Latte.Builder().generatedAdapters(true).create();
+        Latte reflective = new Latte();
+
+        for (int i = 0; i < VARIANTS; i++) {
+            Object value = sample(order, i);
+            Object clone = generated.cloneItem(value);
+            assertNotSame(value, clone);
+            assertTrue(reflective.isEqual(value, clone));
+            assertEquals(field(order, "version").get(value), field(order, "version").get(clone));
+
+            List<?> items = (List<?>) field(order, "items").get(clone);
+            assertNotSame(((List<?>) field(order, "items").get(value)).get(0), items.get(0));
+            assertSame(items.get(0), items.get(1));
+            if (i != 5) {
+                assertSame(clone, field(order, "parent").get(clone));
+            }
+        }
+    }
+
+    @Test
+    public void generatedCloneUsesInstanceCreatorTest() throws Exception {
+        Class<?> order = compile("Order", ORDER).loadClass("sample.Order");
+        final AtomicInteger created = new AtomicInteger();
+        final Class<?> type = order;
+        Latte latte = new Latte.Builder()
+                .generatedAdapters(true)
+                .instanceCreator(order, new InstanceCreator<Object>() {
+                    @Override
+                    public Object createInstance(Type ignored) {
+                        created.incrementAndGet();
+                        try {
+                            return type.getConstructor(String.class).newInstance("created");
+                        } catch (Exception e) {
+                            throw new AssertionError(e);
+                        }
+                    }
+                })
+                .create();
+
+        Object value = sample(order, 0);
+        Object clone = latte.cloneItem(value);
+        assertEquals(1, created.get());
+        // the creator's instance is filled in, final fields included
+        assertEquals("order", field(order, "name").get(clone));
+    }
+
+    @Test
+    public void generatedAdapterOfShadowedFieldsTest() throws Exception {
+        Class<?> child = compile("Shadowed", SHADOWED).loadClass("sample.Shadowed$Child");
+        Latte generated = new Latte.Builder().generatedAdapters(true).create();
+        Latte reflective = new Latte();
+        assertTrue(generated.getAdapter(child) instanceof GeneratedAdapter);
+
+        Method sample = child.getMethod("sample", int.class, int.class);
+        Object value = sample.invoke(null, 1, 2);
+        Object otherBase = sample.invoke(null, 3, 2);
+        Object otherOwn = sample.invoke(null, 1, 3);
+        assertTrue(generated.isEqual(value, sample.invoke(null, 1, 2)));
+        // both fields named x are compared, not the subclass field twice
+        assertEquals(reflective.isEqual(value, otherBase), generated.isEqual(value, otherBase));
+        assertEquals(reflective.diffItem(value, otherBase), generated.diffItem(value, otherBase));
+        assertEquals(reflective.diffItem(value, otherOwn), generated.diffItem(value, otherOwn));
+        assertEquals(reflective.hashItem(value), generated.hashItem(value));
+
+        Object clone = generated.cloneItem(value);
+        Class<?> base = child.getSuperclass();
+        assertEquals(1, field(base, "x").get(clone));
+        assertEquals("base1", field(base, "label").get(clone));
+        assertEquals(2, field(child, "x").get(clone));
+        assertEquals("own2", field(child, "label").get(clone));
+    }
+
+    private static Object sample(Class<?> order, int variant) throws Exception {
+        return order.getMethod("sample", int.class).invoke(null, variant);
+    }
+
+    private static Field field(Class<?> type, String name) throws NoSuchFieldException {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    /**
+     * Compiles the sample class {@code name} with the processor and returns a class loader for
+     * the output.
+     */
+    private static ClassLoader compile(String name, String code) throws IOException {
+        File root = Files.createTempDirectory("latte-compiler").toFile();
+        File sources = new File(root, "src/sample");
+        File classes = new File(root, "classes");
+        if (!sources.mkdirs() || !classes.mkdirs()) {
+            throw new IOException("Unable to create " + root);
+        }
+        File source = new File(sources, name + ".java");
+        Files.write(source.toPath(), code.getBytes(StandardCharsets.UTF_8));
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    Arrays.asList("-d", classes.getPath(), "-s", classes.getPath(),
+                            "-classpath", System.getProperty("java.class.path")),
+                    null, fileManager.getJavaFileObjects(source));
+            task.setProcessors(Collections.singletonList(new AdapterProcessor()));
+            assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+        } finally {
+            fileManager.close();
+        }
+        return new URLClassLoader(new URL[]{classes.toURI().toURL()}, AdapterProcessorTest.class.getClassLoader());
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte;
+
+/**
+ * Index of adapters generated by {@code latte-compiler}. Implementations are generated,
+ * one per package, and listed in {@code META-INF/services/xyz.truenight.latte.AdapterRegistry}
+ * so {@link Latte} finds them with {@link java.util.ServiceLoader} before falling back
+ * to {@link ReflectiveAdapter}, see {@link Latte.Builder#generatedAdapters(boolean)}.
+ */
+public interface AdapterRegistry {
+
+    /**
+     * Returns the generated adapter for exactly {@code type}.
+     *
+     * @param latte instance used to resolve child adapters
+     * @param type  raw type
+     * @return generated adapter or {@code null} if this registry doesn't know {@code type}
+     */
+    TypeAdapter<?> create(Latte latte, Class<?> type);
+}
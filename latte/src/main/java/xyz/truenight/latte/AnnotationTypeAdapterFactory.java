@@ -18,16 +18,24 @@
 package xyz.truenight.latte;
 
 import java.lang.annotation.Annotation;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Given a type T, looks for the annotations {@link UseAdapter}, {@link UnorderedCollection} and uses an instance of the
  * specified class as the default type adapter.
+ * <p>
+ * Adapters are cached by type and annotation, so all fields with equal annotations and
+ * the same type share one adapter.
  */
 public final class AnnotationTypeAdapterFactory implements TypeAdapterFactory {
 
+    private final Latte latte;
     private final ConstructorConstructor constructorConstructor;
+    private final ConcurrentMap<Key, TypeAdapter<?>> cache = new ConcurrentHashMap<>();
 
-    public AnnotationTypeAdapterFactory(ConstructorConstructor constructorConstructor) {
+    public AnnotationTypeAdapterFactory(Latte latte, ConstructorConstructor constructorConstructor) {
+        this.latte = latte;
         this.constructorConstructor = constructorConstructor;
     }
 
@@ -38,11 +46,7 @@ public final class AnnotationTypeAdapterFactory implements TypeAdapterFactory {
         if (annotation == null && unorderedCollectionAnnotation == null) {
             return null;
         }
-        if (annotation != null) {
-            return (TypeAdapter<T>) getTypeAdapter(constructorConstructor, targetType, annotation);
-        } else {
-            return (TypeAdapter<T>) getCollectionContainsTypeAdapter(constructorConstructor, targetType);
-        }
+        return create(targetType, annotation != null ? annotation : unorderedCollectionAnnotation);
     }
 
     @SuppressWarnings("unchecked")
@@ -50,10 +54,48 @@ public final class AnnotationTypeAdapterFactory implements TypeAdapterFactory {
         if (annotation == null) {
             return null;
         }
+        Key key = new Key(targetType, annotation);
+        TypeAdapter<?> cached = cache.get(key);
+        if (cached != null) {
+            return (TypeAdapter<T>) cached;
+        }
+        TypeAdapter<?> adapter;
         if (annotation instanceof UseAdapter) {
-            return (TypeAdapter<T>) getTypeAdapter(constructorConstructor, targetType, (UseAdapter) annotation);
+            adapter = getTypeAdapter(constructorConstructor, targetType, (UseAdapter) annotation);
         } else {
-            return (TypeAdapter<T>) getCollectionContainsTypeAdapter(constructorConstructor, targetType);
+            adapter = getCollectionContainsTypeAdapter(latte, constructorConstructor, targetType);
+        }
+        if (adapter != null) {
+            // an adapter made by another thread meanwhile wins, so the type keeps one adapter
+            TypeAdapter<?> previous = cache.putIfAbsent(key, adapter);
+            if (previous != null) {
+                adapter = previous;
+            }
+        }
+        return (TypeAdapter<T>) adapter;
+    }
+
+    private static final class Key {
+        final TypeToken<?> type;
+        final Annotation annotation;
+
+        Key(TypeToken<?> type, Annotation annotation) {
+            this.type = type;
+            this.annotation = annotation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type.equals(other.type) && annotation.equals(other.annotation);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + annotation.hashCode();
         }
     }
 
@@ -77,9 +119,9 @@ public final class AnnotationTypeAdapterFactory implements TypeAdapterFactory {
     }
 
     @SuppressWarnings("unchecked") // Casts guarded by conditionals.
-    static TypeAdapter<?> getCollectionContainsTypeAdapter(ConstructorConstructor constructorConstructor,
+    static TypeAdapter<?> getCollectionContainsTypeAdapter(Latte latte, ConstructorConstructor constructorConstructor,
                                                            TypeToken<?> fieldType) {
 
-        return UnorderedCollectionTypeAdapter.newFactory(constructorConstructor).create(fieldType);
+        return UnorderedCollectionTypeAdapter.newFactory(latte, constructorConstructor).create(fieldType);
     }
 }
@@ -19,35 +19,35 @@ package xyz.truenight.latte;
 import java.lang.reflect.Array;
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.List;
-
-public class ArrayTypeAdapter<E> implements TypeAdapter<Object> {
-    public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
-        @SuppressWarnings({"unchecked", "rawtypes"})
-        public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
-            Type type = typeToken.getType();
-            if (!(type instanceof GenericArrayType || type instanceof Class && ((Class<?>) type).isArray())) {
-                return null;
-            }
 
-            Type componentType = $Types.getArrayComponentType(type);
-            TypeAdapter<?> componentTypeAdapter = Latte.getInstance().getAdapter(TypeToken.get(componentType));
-            return new ArrayTypeAdapter(
-                    componentTypeAdapter, $Types.getRawType(componentType));
-        }
-    };
+public class ArrayTypeAdapter<E> implements TypeAdapter<Object>, TypeHasher<Object>, TypeDiffer<Object>,
+        TypeCopier<Object> {
+    public static TypeAdapterFactory newFactory(final Latte latte) {
+        return new TypeAdapterFactory() {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
+                Type type = typeToken.getType();
+                if (!(type instanceof GenericArrayType || type instanceof Class && ((Class<?>) type).isArray())) {
+                    return null;
+                }
+
+                Type componentType = $Types.getArrayComponentType(type);
+                TypeAdapter<?> componentTypeAdapter = latte.getAdapter(TypeToken.get(componentType));
+                return new ArrayTypeAdapter(latte,
+                        componentTypeAdapter, $Types.getRawType(componentType));
+            }
+        };
+    }
 
     private final Class<E> componentType;
-    private final TypeAdapter<E> componentTypeAdapter;
+    final TypeAdapterRuntimeTypeWrapper<E> componentTypeAdapter;
 
-    public ArrayTypeAdapter(TypeAdapter<E> componentTypeAdapter, Class<E> componentType) {
+    public ArrayTypeAdapter(Latte latte, TypeAdapter<E> componentTypeAdapter, Class<E> componentType) {
         this.componentTypeAdapter =
-                new TypeAdapterRuntimeTypeWrapper<>(componentTypeAdapter, componentType);
+                new TypeAdapterRuntimeTypeWrapper<>(latte, componentTypeAdapter, componentType);
         this.componentType = componentType;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public boolean equal(Object a, Object b) {
         if (a == null && b != null) {
@@ -63,6 +63,28 @@ public class ArrayTypeAdapter<E> implements TypeAdapter<Object> {
         if (Array.getLength(a) != Array.getLength(b)) {
             return false;
         }
+
+        EqualContext context = EqualContext.enter();
+        try {
+            int state = context.begin(this, a, b);
+            if (state != EqualContext.NEW) {
+                return state == EqualContext.EQUAL;
+            }
+            boolean equal = equalElements(context, a, b);
+            context.end(this, a, b, equal);
+            return equal;
+        } finally {
+            context.exit();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean equalElements(EqualContext context, Object a, Object b) {
+        if (a instanceof Object[]) {
+            return ParallelEqual.equalAll(context, componentTypeAdapter, (Object[]) a, (Object[]) b);
+        }
+
+        // primitive arrays get here only through subclasses, see TypeAdapters.PRIMITIVE_ARRAY_FACTORY
         for (int i = 0, length = Array.getLength(a); i < length; i++) {
             E aValue = (E) Array.get(a, i);
             E bValue = (E) Array.get(b, i);
@@ -73,22 +95,138 @@ public class ArrayTypeAdapter<E> implements TypeAdapter<Object> {
         return true;
     }
 
+    /**
+     * Copies the elements onto the elements of {@code target} if it is an array of the same
+     * class and length.
+     */
     @SuppressWarnings("unchecked")
     @Override
-    public Object clone(Object value) {
+    public Object copyInto(Object source, Object target, CopyContext context) {
+        if (!(source instanceof Object[]) || target == null || source.getClass() != target.getClass()
+                || Array.getLength(source) != Array.getLength(target) || !context.reuse(source, target)) {
+            return context.replace(this, source, target);
+        }
+
+        Object[] sourceArray = (Object[]) source;
+        Object[] targetArray = (Object[]) target;
+        for (int i = 0; i < sourceArray.length; i++) {
+            context.pushIndex(i);
+            targetArray[i] = context.copy(componentTypeAdapter, (E) sourceArray[i], (E) targetArray[i]);
+            context.pop();
+        }
+        return target;
+    }
+
+    /**
+     * Diffs the elements pairwise by index, elements past the end of the shorter array
+     * are differences.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void diff(Object a, Object b, DiffContext context) {
+        Boolean check = Latte.check(a, b);
+        if (check != null) {
+            if (!check) {
+                context.report();
+            }
+            return;
+        }
+        if (!context.enter(a, b)) {
+            return;
+        }
+        int aLength = Array.getLength(a);
+        int bLength = Array.getLength(b);
+        for (int i = 0, length = Math.max(aLength, bLength); i < length && !context.isFull(); i++) {
+            context.pushIndex(i);
+            if (i < aLength && i < bLength) {
+                context.diff(componentTypeAdapter, (E) Array.get(a, i), (E) Array.get(b, i));
+            } else {
+                context.report();
+            }
+            context.pop();
+        }
+    }
+
+    @Override
+    public int hash(Object value) {
         if (value == null) {
-            return null;
+            return 0;
+        }
+        HashContext context = HashContext.enter(value);
+        if (context == null) {
+            return 0;
+        }
+        try {
+            return hashElements(value);
+        } finally {
+            context.exit();
         }
+    }
 
-        List<E> list = new ArrayList<E>();
+    int hashElements(Object value) {
+        int hash = 1;
         for (int i = 0, length = Array.getLength(value); i < length; i++) {
-            E instance = componentTypeAdapter.clone((E) Array.get(value, i));
-            list.add(instance);
+            hash = 31 * hash + elementHash(value, i);
+        }
+        return hash;
+    }
+
+    /**
+     * Hash of an element, primitive elements are read without boxing and hash like their
+     * boxed values.
+     */
+    @SuppressWarnings("unchecked")
+    int elementHash(Object array, int index) {
+        if (!componentType.isPrimitive()) {
+            return componentTypeAdapter.hash((E) ((Object[]) array)[index]);
+        } else if (componentType == int.class) {
+            return Array.getInt(array, index);
+        } else if (componentType == long.class) {
+            long bits = Array.getLong(array, index);
+            return (int) (bits ^ (bits >>> 32));
+        } else if (componentType == double.class) {
+            long bits = Double.doubleToLongBits(Array.getDouble(array, index));
+            return (int) (bits ^ (bits >>> 32));
+        } else if (componentType == float.class) {
+            return Float.floatToIntBits(Array.getFloat(array, index));
+        } else if (componentType == boolean.class) {
+            return Array.getBoolean(array, index) ? 1231 : 1237;
+        } else {
+            // byte, short and char widen to int like their boxed hash codes
+            return Array.getInt(array, index);
         }
-        Object array = Array.newInstance(componentType, list.size());
-        for (int i = 0; i < list.size(); i++) {
-            Array.set(array, i, list.get(i));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone(Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        CloneContext context = CloneContext.enter();
+        try {
+            Object copy = context.get(value);
+            if (copy != null) {
+                return copy;
+            }
+
+            if (value instanceof Object[]) {
+                // a copy of the source keeps its runtime component type, so a String[] held
+                // by an Object[] field is cloned into a String[]
+                Object[] source = (Object[]) value;
+                Object[] array = source.clone();
+                Object registered = context.put(value, array);
+                if (registered != array) {
+                    return registered;
+                }
+                ParallelClone.cloneAll(context, componentTypeAdapter, source, array);
+                return array;
+            }
+
+            return TypeAdapters.copyOf(value);
+        } finally {
+            context.exit();
         }
-        return array;
     }
 }
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Identity table of one clone call. Every source object that is copied by a container
+ * adapter is registered before its children are cloned, so shared references stay shared
+ * in the copy and cycles terminate.
+ * <p>
+ * The context is bound to the current thread: the outermost {@link #enter()} creates it
+ * and the matching {@link #exit()} discards it. {@link GeneratedAdapter} uses it the same
+ * way the built-in container adapters do.
+ * <p>
+ * The context also carries the options of the {@link Latte} the call was made on. Tasks of
+ * a parallel clone run in contexts forked from the caller's: they see the copies registered
+ * before the fork and register theirs in one table shared by all tasks of the clone, so an
+ * object reachable from several tasks is copied once. The table is joined back into the
+ * caller's context once the tasks are done.
+ */
+final class CloneContext {
+
+    private static final ThreadLocal<CloneContext> CURRENT = new ThreadLocal<CloneContext>();
+
+    /**
+     * Options of the call, {@code null} if adapters are used without a {@link Latte}.
+     */
+    private final Latte latte;
+    /**
+     * Context this one was forked from. Not modified while forked contexts run.
+     */
+    private final CloneContext parent;
+    /**
+     * Copies registered by the tasks of a parallel clone, {@code null} outside of one. Keys
+     * are {@link Identity} wrappers.
+     */
+    private final ConcurrentMap<Identity, Object> shared;
+
+    private Map<Object, Object> copies;
+    private int depth;
+    // objects copied during the call, reported to the listener
+    private int nodes;
+
+    private CloneContext(Latte latte, CloneContext parent, ConcurrentMap<Identity, Object> shared) {
+        this.latte = latte;
+        this.parent = parent;
+        this.shared = shared;
+    }
+
+    static CloneContext enter() {
+        return enter(null);
+    }
+
+    /**
+     * Enters the context of a clone call made on {@code latte}. Options of a call that is
+     * already in progress on this thread are kept.
+     */
+    static CloneContext enter(Latte latte) {
+        CloneContext context = CURRENT.get();
+        if (context == null) {
+            context = new CloneContext(latte, null, null);
+            CURRENT.set(context);
+        }
+        context.depth++;
+        return context;
+    }
+
+    void exit() {
+        if (--depth == 0) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Returns true if this is the outermost call of the context, the one that reports it.
+     */
+    boolean isOutermost() {
+        return depth == 1;
+    }
+
+    int nodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns true if a lazy clone call is in progress on this thread.
+     */
+    static boolean isLazyCall() {
+        CloneContext context = CURRENT.get();
+        return context != null && context.isLazy();
+    }
+
+    /**
+     * Returns true if containers declared as collection or map interfaces are cloned into
+     * views that copy on first access. A view keeps the context and clones in it again,
+     * bound to the thread that reads the view, after the call has returned.
+     */
+    boolean isLazy() {
+        return latte != null && latte.lazyClone;
+    }
+
+    /**
+     * Returns true if {@code size} elements are cloned in parallel.
+     */
+    boolean isParallel(int size) {
+        return latte != null && latte.parallelPool != null && size >= latte.parallelThreshold;
+    }
+
+    Latte latte() {
+        return latte;
+    }
+
+    /**
+     * Returns the context of the call this one was forked from, or this context.
+     */
+    CloneContext root() {
+        CloneContext context = this;
+        while (context.parent != null) {
+            context = context.parent;
+        }
+        return context;
+    }
+
+    /**
+     * Returns the table the tasks of a parallel clone started in this context register their
+     * copies in. Tasks forked below a parallel clone use the table of the outer one.
+     */
+    ConcurrentMap<Identity, Object> sharedCopies() {
+        return shared != null ? shared : new ConcurrentHashMap<Identity, Object>();
+    }
+
+    /**
+     * Returns a context for a task forked from this one that registers its copies in
+     * {@code shared}. It isn't bound to any thread.
+     */
+    CloneContext fork(ConcurrentMap<Identity, Object> shared) {
+        return new CloneContext(latte, this, shared);
+    }
+
+    /**
+     * Binds {@code context} to the current thread in place of the context of whatever
+     * the thread was doing.
+     *
+     * @return the replaced context, to be passed to {@link #unbind(CloneContext)}
+     */
+    static CloneContext bind(CloneContext context) {
+        CloneContext previous = CURRENT.get();
+        CURRENT.set(context);
+        context.depth++;
+        return previous;
+    }
+
+    void unbind(CloneContext previous) {
+        depth--;
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Takes over the counts of a finished forked context.
+     */
+    void join(CloneContext forked) {
+        nodes += forked.nodes;
+    }
+
+    /**
+     * Takes over the copies registered by the finished tasks of a parallel clone, unless
+     * they were registered in the table this context uses itself.
+     */
+    void joinCopies(ConcurrentMap<Identity, Object> shared) {
+        if (shared == this.shared) {
+            return;
+        }
+        if (copies == null) {
+            copies = new IdentityHashMap<Object, Object>();
+        }
+        for (Map.Entry<Identity, Object> entry : shared.entrySet()) {
+            copies.put(entry.getKey().value, entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the copy already made of {@code original} during this call or {@code null}.
+     */
+    Object get(Object original) {
+        Object copy = shared != null
+                ? shared.get(new Identity(original))
+                : copies == null ? null : copies.get(original);
+        if (copy == null && parent != null) {
+            return parent.get(original);
+        }
+        return copy;
+    }
+
+    /**
+     * Registers {@code copy} as the copy of {@code original}. Must be called before
+     * the children of {@code original} are cloned.
+     *
+     * @return {@code copy}, or the copy another task of a parallel clone registered first;
+     * the caller has to return that one and leave {@code copy} unused
+     */
+    Object put(Object original, Object copy) {
+        if (shared != null) {
+            Object registered = shared.putIfAbsent(new Identity(original), copy);
+            if (registered != null) {
+                return registered;
+            }
+        } else {
+            if (copies == null) {
+                copies = new IdentityHashMap<Object, Object>();
+            }
+            copies.put(original, copy);
+        }
+        nodes++;
+        return copy;
+    }
+
+    /**
+     * Key of the shared table, compares the wrapped object by identity.
+     */
+    static final class Identity {
+        final Object value;
+
+        Identity(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && ((Identity) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(value);
+        }
+    }
+}
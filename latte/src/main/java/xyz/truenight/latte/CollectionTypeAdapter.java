@@ -19,10 +19,13 @@ package xyz.truenight.latte;
 import java.lang.reflect.Type;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
 
-public class CollectionTypeAdapter<E> implements TypeAdapter<Collection<E>> {
+public class CollectionTypeAdapter<E> implements TypeAdapter<Collection<E>>, TypeHasher<Collection<E>>,
+        TypeDiffer<Collection<E>>, TypeCopier<Collection<E>> {
 
-    public static final TypeAdapterFactory newFactory(final ConstructorConstructor constructorConstructor) {
+    public static final TypeAdapterFactory newFactory(final Latte latte, final ConstructorConstructor constructorConstructor) {
         return new TypeAdapterFactory() {
             @SuppressWarnings({"unchecked", "rawtypes"})
             public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
@@ -34,36 +37,70 @@ public class CollectionTypeAdapter<E> implements TypeAdapter<Collection<E>> {
                 }
 
                 Type elementType = $Types.getCollectionElementType(type, rawType);
-                TypeAdapter<?> elementTypeAdapter = Latte.getInstance().getAdapter(TypeToken.get(elementType));
+                TypeAdapter<?> elementTypeAdapter = latte.getAdapter(TypeToken.get(elementType));
                 ObjectConstructor<T> constructor = constructorConstructor.get(typeToken);
 
                 @SuppressWarnings({"unchecked", "rawtypes"}) // create() doesn't define a type parameter
-                        TypeAdapter<T> result = new CollectionTypeAdapter(elementType, elementTypeAdapter, constructor);
+                        TypeAdapter<T> result = new CollectionTypeAdapter(latte, elementType, elementTypeAdapter, constructor, rawType);
 
                 return result;
             }
         };
     }
 
-    private final TypeAdapter<E> elementTypeAdapter;
+    private final TypeAdapterRuntimeTypeWrapper<E> elementTypeAdapter;
     private final ObjectConstructor<? extends Collection<E>> constructor;
+    /**
+     * Class of the collections {@link #clone(Collection)} creates, found on first use.
+     */
+    private volatile Class<?> cloneClass;
+    /**
+     * Declared collection type if a lazy clone may return a view, otherwise {@code null}.
+     */
+    private final Class<?> viewType;
+    private final LazyCollections.SourceConstructor viewConstructor = new LazyCollections.SourceConstructor();
 
-    public CollectionTypeAdapter(Type elementType,
+    public CollectionTypeAdapter(Latte latte, Type elementType,
                                  TypeAdapter<E> elementTypeAdapter, ObjectConstructor<? extends Collection<E>> constructor) {
+        this(latte, elementType, elementTypeAdapter, constructor, null);
+    }
+
+    CollectionTypeAdapter(Latte latte, Type elementType, TypeAdapter<E> elementTypeAdapter,
+                          ObjectConstructor<? extends Collection<E>> constructor, Class<?> rawType) {
         this.elementTypeAdapter =
-                new TypeAdapterRuntimeTypeWrapper<E>(elementTypeAdapter, elementType);
+                new TypeAdapterRuntimeTypeWrapper<E>(latte, elementTypeAdapter, elementType);
         this.constructor = constructor;
+        this.viewType = rawType != null && LazyCollections.hasView(rawType) ? rawType : null;
     }
 
     @Override
     public boolean equal(Collection<E> a, Collection<E> b) {
-        Boolean equal = Latte.check(a, b);
-        if (equal != null) return equal;
+        Boolean check = Latte.check(a, b);
+        if (check != null) return check;
 
         if (a.size() != b.size()) {
             return false;
         }
 
+        EqualContext context = EqualContext.enter();
+        try {
+            int state = context.begin(this, a, b);
+            if (state != EqualContext.NEW) {
+                return state == EqualContext.EQUAL;
+            }
+            boolean equal = equalElements(context, a, b);
+            context.end(this, a, b, equal);
+            return equal;
+        } finally {
+            context.exit();
+        }
+    }
+
+    private boolean equalElements(EqualContext context, Collection<E> a, Collection<E> b) {
+        if (context.isParallel(a.size())) {
+            return ParallelEqual.equalAll(context, elementTypeAdapter, a.toArray(), b.toArray());
+        }
+
         Iterator<E> aIterator = a.iterator();
         Iterator<E> bIterator = b.iterator();
 
@@ -77,17 +114,171 @@ public class CollectionTypeAdapter<E> implements TypeAdapter<Collection<E>> {
         return true;
     }
 
+    /**
+     * Copies the elements of random access lists onto the elements of {@code target} by
+     * index. Other collections are cleared and filled with clones, since their elements
+     * can't be matched by position.
+     */
+    @Override
+    public Collection<E> copyInto(Collection<E> source, Collection<E> target, CopyContext context) {
+        if (source == null || target == null || !reusable(source, target) || !context.reuse(source, target)) {
+            return context.replace(this, source, target);
+        }
+
+        if (!(source instanceof RandomAccess && source instanceof List
+                && target instanceof RandomAccess && target instanceof List)) {
+            if (context.isReporting() && !equal(source, target)) {
+                context.report();
+            }
+            target.clear();
+            for (E e : source) {
+                target.add(elementTypeAdapter.clone(e));
+            }
+            return target;
+        }
+
+        List<E> sourceList = (List<E>) source;
+        List<E> targetList = (List<E>) target;
+        int sourceSize = sourceList.size();
+        int targetSize = targetList.size();
+        for (int i = 0; i < Math.max(sourceSize, targetSize); i++) {
+            context.pushIndex(i);
+            if (i < sourceSize && i < targetSize) {
+                E current = targetList.get(i);
+                E copy = context.copy(elementTypeAdapter, sourceList.get(i), current);
+                if (copy != current) {
+                    targetList.set(i, copy);
+                }
+            } else {
+                context.report();
+                if (i < sourceSize) {
+                    targetList.add(elementTypeAdapter.clone(sourceList.get(i)));
+                }
+            }
+            context.pop();
+        }
+        if (targetSize > sourceSize) {
+            targetList.subList(sourceSize, targetSize).clear();
+        }
+        return target;
+    }
+
+    /**
+     * Returns true if {@code target} is of the class of {@code source} or of the class
+     * {@link #clone(Collection)} creates.
+     */
+    private boolean reusable(Collection<E> source, Collection<E> target) {
+        Class<?> targetClass = target.getClass();
+        if (targetClass == source.getClass()) {
+            return true;
+        }
+        Class<?> cloneClass = this.cloneClass;
+        if (cloneClass == null) {
+            cloneClass = constructor.construct().getClass();
+            this.cloneClass = cloneClass;
+        }
+        return targetClass == cloneClass;
+    }
+
+    /**
+     * Diffs the elements pairwise by index, elements past the end of the shorter collection
+     * are differences.
+     */
+    @Override
+    public void diff(Collection<E> a, Collection<E> b, DiffContext context) {
+        Boolean check = Latte.check(a, b);
+        if (check != null) {
+            if (!check) {
+                context.report();
+            }
+            return;
+        }
+        if (!context.enter(a, b)) {
+            return;
+        }
+        Iterator<E> aIterator = a.iterator();
+        Iterator<E> bIterator = b.iterator();
+        for (int i = 0; (aIterator.hasNext() || bIterator.hasNext()) && !context.isFull(); i++) {
+            context.pushIndex(i);
+            if (aIterator.hasNext() && bIterator.hasNext()) {
+                context.diff(elementTypeAdapter, aIterator.next(), bIterator.next());
+            } else {
+                (aIterator.hasNext() ? aIterator : bIterator).next();
+                context.report();
+            }
+            context.pop();
+        }
+    }
+
+    @Override
+    public int hash(Collection<E> value) {
+        if (value == null) {
+            return 0;
+        }
+        HashContext context = HashContext.enter(value);
+        if (context == null) {
+            return 0;
+        }
+        try {
+            int hash = 1;
+            if (value instanceof RandomAccess && value instanceof List) {
+                List<E> list = (List<E>) value;
+                for (int i = 0, size = list.size(); i < size; i++) {
+                    hash = 31 * hash + elementTypeAdapter.hash(list.get(i));
+                }
+            } else {
+                for (E e : value) {
+                    hash = 31 * hash + elementTypeAdapter.hash(e);
+                }
+            }
+            return hash;
+        } finally {
+            context.exit();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
     @Override
     public Collection<E> clone(Collection<E> value) {
         if (value == null) {
             return null;
         }
 
-        Collection<E> collection = constructor.construct();
-        for (E e : value) {
-            E instance = elementTypeAdapter.clone(e);
-            collection.add(instance);
+        CloneContext context = CloneContext.enter();
+        try {
+            Collection<E> copy = (Collection<E>) context.get(value);
+            if (copy != null) {
+                return copy;
+            }
+
+            if (viewType != null && context.isLazy()) {
+                // an eager clone would go through the adapter of the source class
+                Collection<E> view = LazyCollections.view(viewType, value, elementTypeAdapter, context,
+                        viewConstructor.<Collection<E>>get(context.latte(), value.getClass()));
+                return (Collection<E>) context.put(value, view);
+            }
+
+            Collection<E> collection = constructor.construct();
+            Object registered = context.put(value, collection);
+            if (registered != collection) {
+                return (Collection<E>) registered;
+            }
+            if (context.isParallel(value.size())) {
+                Object[] elements = value.toArray();
+                ParallelClone.cloneAll(context, elementTypeAdapter, elements, elements);
+                for (Object e : elements) {
+                    collection.add((E) e);
+                }
+                return collection;
+            }
+
+            for (E e : value) {
+                E instance = elementTypeAdapter.clone(e);
+                collection.add(instance);
+            }
+            return collection;
+        } finally {
+            context.exit();
         }
-        return collection;
     }
 }
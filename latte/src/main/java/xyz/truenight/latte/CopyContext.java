@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of one copy call: the copies made so far, shared with the {@link CloneContext} of the
+ * call so objects shared in the source stay shared whether they were copied onto a target
+ * object or cloned, and the {@link Path} to the current value if changes are reported.
+ * <p>
+ * A target object is reused for one source object only, so a target graph that shares
+ * objects the source doesn't share is not corrupted, the extra sources are cloned instead.
+ */
+final class CopyContext {
+
+    private final CloneContext clones;
+    private final Map<Object, Boolean> reused = new IdentityHashMap<>();
+    /**
+     * Paths that changed, {@code null} if changes aren't reported.
+     */
+    private final List<String> changed;
+    private final Path path;
+
+    CopyContext(CloneContext clones, List<String> changed) {
+        this.clones = clones;
+        this.changed = changed;
+        this.path = changed != null ? new Path() : null;
+    }
+
+    /**
+     * Copies {@code source} onto {@code target} with {@code adapter}, or clones it if the
+     * adapter can't copy onto existing values.
+     *
+     * @return the value to store in place of {@code target}
+     */
+    @SuppressWarnings("unchecked")
+    <T> T copy(TypeAdapter<T> adapter, T source, T target) {
+        if (source == target) {
+            return target;
+        }
+        if (source != null) {
+            Object copy = clones.get(source);
+            if (copy != null) {
+                if (copy != target && isReporting() && !adapter.equal(source, target)) {
+                    report();
+                }
+                return (T) copy;
+            }
+        }
+        if (adapter instanceof TypeCopier) {
+            return ((TypeCopier<T>) adapter).copyInto(source, target, this);
+        }
+        return replace(adapter, source, target);
+    }
+
+    /**
+     * Clones {@code source} to take the place of {@code target}, for values whose shapes
+     * don't match.
+     */
+    <T> T replace(TypeAdapter<T> adapter, T source, T target) {
+        if (isReporting() && !adapter.equal(source, target)) {
+            report();
+        }
+        return adapter.clone(source);
+    }
+
+    /**
+     * Starts copying {@code source} onto {@code target}. Must be called before the children
+     * of {@code source} are copied.
+     *
+     * @return false if {@code target} has already been reused for another source object,
+     * {@code source} has to be {@link #replace(TypeAdapter, Object, Object) replaced} then
+     */
+    boolean reuse(Object source, Object target) {
+        if (reused.put(target, Boolean.TRUE) != null) {
+            return false;
+        }
+        clones.put(source, target);
+        return true;
+    }
+
+    /**
+     * Returns true if changed paths are reported. Adapters skip comparisons made only to
+     * report changes otherwise.
+     */
+    boolean isReporting() {
+        return changed != null;
+    }
+
+    /**
+     * Reports the current path as changed.
+     */
+    void report() {
+        if (changed != null) {
+            changed.add(path.toString());
+        }
+    }
+
+    void pushField(String name) {
+        if (path != null) {
+            path.pushField(name);
+        }
+    }
+
+    void pushIndex(int index) {
+        if (path != null) {
+            path.pushIndex(index);
+        }
+    }
+
+    void pushKey(Object key) {
+        if (path != null) {
+            path.pushKey(key);
+        }
+    }
+
+    void pop() {
+        if (path != null) {
+            path.pop();
+        }
+    }
+}
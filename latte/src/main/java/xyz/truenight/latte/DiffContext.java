@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differences found by one diff call, and the {@link Path} from the compared values to the
+ * current pair. The path is turned into a string only when a difference is reported.
+ * <p>
+ * Every pair of objects is diffed once, so shared subgraphs are reported under the path
+ * they were first reached by and cycles terminate.
+ */
+final class DiffContext {
+
+    private final int maxDifferences;
+    private final List<String> differences = new ArrayList<>();
+    private final Map<Object, Object> visited = new IdentityHashMap<>();
+    private final Path path = new Path();
+
+    DiffContext(int maxDifferences) {
+        this.maxDifferences = maxDifferences;
+    }
+
+    /**
+     * Diffs {@code a} and {@code b} with {@code adapter}, or reports them if the adapter
+     * can only tell that they aren't equal.
+     */
+    @SuppressWarnings("unchecked")
+    <T> void diff(TypeAdapter<T> adapter, T a, T b) {
+        if (adapter instanceof TypeDiffer) {
+            ((TypeDiffer<T>) adapter).diff(a, b, this);
+        } else if (!adapter.equal(a, b)) {
+            report();
+        }
+    }
+
+    /**
+     * Starts diffing the children of {@code a} and {@code b}.
+     *
+     * @return false if the pair has already been diffed and the children have to be skipped
+     */
+    boolean enter(Object a, Object b) {
+        if (visited.get(a) == b) {
+            return false;
+        }
+        visited.put(a, b);
+        return true;
+    }
+
+    /**
+     * Returns true if the maximum number of differences has been reported, so diffing can stop.
+     */
+    boolean isFull() {
+        return differences.size() >= maxDifferences;
+    }
+
+    /**
+     * Reports the current path as a difference.
+     */
+    void report() {
+        if (!isFull()) {
+            differences.add(path.toString());
+        }
+    }
+
+    void pushField(String name) {
+        path.pushField(name);
+    }
+
+    void pushIndex(int index) {
+        path.pushIndex(index);
+    }
+
+    void pushKey(Object key) {
+        path.pushKey(key);
+    }
+
+    void pop() {
+        path.pop();
+    }
+
+    List<String> differences() {
+        return differences;
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Table of (a, b) pairs visited during one equality call, so each distinct pair of nodes is
+ * compared at most once. Shared subgraphs are not compared again and cycles terminate.
+ * <p>
+ * Pairs are kept per adapter: the same two lists can be equal to an unordered collection
+ * adapter and unequal to an ordered one.
+ * <p>
+ * A pair that is still in progress is assumed to be equal. If it turns out to be unequal,
+ * every pair proven equal while it was in progress is forgotten, because that proof may
+ * have depended on the assumption. Unequal results never depend on assumptions and are kept.
+ * <p>
+ * The context is bound to the current thread: the outermost {@link #enter()} creates it
+ * and the matching {@link #exit()} discards it.
+ * <p>
+ * Tasks of a parallel comparison run in contexts forked from the caller's. They see the
+ * pairs known before the fork, which keeps cycles terminating, but not each other's. All
+ * tasks of one comparison share a flag that is raised by the first difference found, and
+ * tasks forked below a cancelled comparison stop as well.
+ */
+final class EqualContext {
+
+    /**
+     * The pair is seen for the first time and is now in progress.
+     */
+    static final int NEW = 0;
+    /**
+     * The pair is in progress or proven equal.
+     */
+    static final int EQUAL = 1;
+    /**
+     * The pair is proven unequal.
+     */
+    static final int NOT_EQUAL = 2;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte IN_PROGRESS = 1;
+    private static final byte PROVEN_EQUAL = 2;
+    private static final byte PROVEN_NOT_EQUAL = 3;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final ThreadLocal<EqualContext> CURRENT = new ThreadLocal<EqualContext>();
+
+    /**
+     * Options of the call, {@code null} if adapters are used without a {@link Latte}.
+     */
+    private final Latte latte;
+    /**
+     * Context this one was forked from. Not modified while forked contexts run.
+     */
+    private final EqualContext parent;
+    /**
+     * Raised when the parallel comparison this context belongs to found a difference.
+     */
+    private final AtomicBoolean cancelled;
+
+    private int depth;
+
+    // pairs compared during the call, reported to the listener
+    private int visited;
+    private Class<?> differenceType;
+    private String differenceField;
+
+    // open addressing table, adapter and pair i are stored at keys[3 * i] to keys[3 * i + 2]
+    private Object[] keys;
+    private byte[] states;
+    private int[] logIndex;
+    private int size;
+
+    // slots of pairs in the order they were started, used to forget dependent proofs
+    private int[] log;
+    private int logSize;
+
+    private EqualContext(Latte latte, EqualContext parent, AtomicBoolean cancelled) {
+        this.latte = latte;
+        this.parent = parent;
+        this.cancelled = cancelled;
+    }
+
+    static EqualContext enter() {
+        return enter(null);
+    }
+
+    /**
+     * Enters the context of an equality call made on {@code latte}. Options of a call that
+     * is already in progress on this thread are kept.
+     */
+    static EqualContext enter(Latte latte) {
+        EqualContext context = CURRENT.get();
+        if (context == null) {
+            context = new EqualContext(latte, null, null);
+            CURRENT.set(context);
+        }
+        context.depth++;
+        return context;
+    }
+
+    void exit() {
+        if (--depth == 0) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Returns true if this is the outermost call of the context, the one that reports it.
+     */
+    boolean isOutermost() {
+        return depth == 1;
+    }
+
+    /**
+     * Returns true if {@code size} elements are compared in parallel.
+     */
+    boolean isParallel(int size) {
+        return latte != null && latte.parallelEqualPool != null && size >= latte.parallelEqualThreshold;
+    }
+
+    Latte latte() {
+        return latte;
+    }
+
+    /**
+     * Returns a context for a task of the parallel comparison that raises {@code cancelled}.
+     * It isn't bound to any thread.
+     */
+    EqualContext fork(AtomicBoolean cancelled) {
+        return new EqualContext(latte, this, cancelled);
+    }
+
+    /**
+     * Returns true if the comparison this context belongs to, or one it was forked from,
+     * has already found a difference.
+     */
+    boolean isCancelled() {
+        return cancelled != null && cancelled.get() || parent != null && parent.isCancelled();
+    }
+
+    /**
+     * Binds {@code context} to the current thread in place of the context of whatever
+     * the thread was doing.
+     *
+     * @return the replaced context, to be passed to {@link #unbind(EqualContext)}
+     */
+    static EqualContext bind(EqualContext context) {
+        EqualContext previous = CURRENT.get();
+        CURRENT.set(context);
+        context.depth++;
+        return previous;
+    }
+
+    void unbind(EqualContext previous) {
+        depth--;
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Starts comparing {@code a} with {@code b} with {@code adapter}.
+     *
+     * @return {@link #NEW} if the caller has to compare the pair and report the result with
+     * {@link #end(TypeAdapter, Object, Object, boolean)}, otherwise the known result
+     */
+    int begin(TypeAdapter<?> adapter, Object a, Object b) {
+        if (keys == null) {
+            allocate(INITIAL_CAPACITY);
+        } else if (size * 2 >= states.length) {
+            rehash(states.length * 2);
+        }
+
+        int slot = find(adapter, a, b);
+        if (keys[3 * slot] == null) {
+            int inherited = parent == null ? NEW : parent.lookup(adapter, a, b);
+            if (inherited != NEW) {
+                return inherited;
+            }
+            keys[3 * slot] = adapter;
+            keys[3 * slot + 1] = a;
+            keys[3 * slot + 2] = b;
+            size++;
+        } else if (states[slot] == PROVEN_NOT_EQUAL) {
+            return NOT_EQUAL;
+        } else if (states[slot] != UNKNOWN) {
+            return EQUAL;
+        }
+
+        visited++;
+        states[slot] = IN_PROGRESS;
+        logIndex[slot] = logSize;
+        if (logSize == log.length) {
+            int[] grown = new int[log.length * 2];
+            System.arraycopy(log, 0, grown, 0, logSize);
+            log = grown;
+        }
+        log[logSize++] = slot;
+        return NEW;
+    }
+
+    /**
+     * Records the result of a pair started with {@link #begin(TypeAdapter, Object, Object)}.
+     */
+    void end(TypeAdapter<?> adapter, Object a, Object b, boolean equal) {
+        int slot = find(adapter, a, b);
+        if (keys[3 * slot] == null) {
+            return;
+        }
+        if (equal) {
+            states[slot] = PROVEN_EQUAL;
+            return;
+        }
+
+        states[slot] = PROVEN_NOT_EQUAL;
+        // everything started after this pair may rely on it being equal
+        int from = logIndex[slot];
+        for (int i = from + 1; i < logSize; i++) {
+            int dependent = log[i];
+            if (states[dependent] != PROVEN_NOT_EQUAL) {
+                states[dependent] = UNKNOWN;
+            }
+        }
+        logSize = from;
+    }
+
+    /**
+     * Returns the known result of a pair without starting it.
+     */
+    private int lookup(TypeAdapter<?> adapter, Object a, Object b) {
+        if (keys != null) {
+            int slot = find(adapter, a, b);
+            if (keys[3 * slot] != null && states[slot] != UNKNOWN) {
+                return states[slot] == PROVEN_NOT_EQUAL ? NOT_EQUAL : EQUAL;
+            }
+        }
+        return parent == null ? NEW : parent.lookup(adapter, a, b);
+    }
+
+    /**
+     * Records that {@code field} of two objects of {@code type} is not equal. Only the first
+     * field is kept, it is the deepest one of the first difference found. Fields of elements
+     * that were tried and not matched by unordered comparisons are recorded too.
+     */
+    void notEqual(Class<?> type, String field) {
+        if (differenceField == null) {
+            differenceType = type;
+            differenceField = field;
+        }
+    }
+
+    /**
+     * Returns the first field recorded by {@link #notEqual(Class, String)} as
+     * {@code type.field}, or {@code null}.
+     */
+    String difference() {
+        return differenceField == null ? null : differenceType.getName() + "." + differenceField;
+    }
+
+    int visited() {
+        return visited;
+    }
+
+    /**
+     * Takes over the counts of a finished forked context, and its difference if it found one.
+     */
+    void join(EqualContext forked, boolean different) {
+        visited += forked.visited;
+        if (different && forked.differenceField != null) {
+            notEqual(forked.differenceType, forked.differenceField);
+        }
+    }
+
+    private int find(Object adapter, Object a, Object b) {
+        int mask = states.length - 1;
+        int slot = hash(adapter, a, b) & mask;
+        while (true) {
+            Object key = keys[3 * slot];
+            if (key == null || key == adapter && keys[3 * slot + 1] == a && keys[3 * slot + 2] == b) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int hash(Object adapter, Object a, Object b) {
+        int h = (System.identityHashCode(adapter) * 31 + System.identityHashCode(a)) * 31
+                + System.identityHashCode(b);
+        // spread the identity hash bits, they are poorly distributed in the low bits on some VMs
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity * 3];
+        states = new byte[capacity];
+        logIndex = new int[capacity];
+        if (log == null) {
+            log = new int[capacity];
+        }
+    }
+
+    private void rehash(int capacity) {
+        Object[] oldKeys = keys;
+        byte[] oldStates = states;
+        int[] oldLogIndex = logIndex;
+        allocate(capacity);
+
+        int[] moved = new int[oldStates.length];
+        for (int i = 0; i < oldStates.length; i++) {
+            Object adapter = oldKeys[3 * i];
+            if (adapter == null) {
+                continue;
+            }
+            Object a = oldKeys[3 * i + 1];
+            Object b = oldKeys[3 * i + 2];
+            int slot = find(adapter, a, b);
+            keys[3 * slot] = adapter;
+            keys[3 * slot + 1] = a;
+            keys[3 * slot + 2] = b;
+            states[slot] = oldStates[i];
+            logIndex[slot] = oldLogIndex[i];
+            moved[i] = slot;
+        }
+        for (int i = 0; i < logSize; i++) {
+            log[i] = moved[log[i]];
+        }
+    }
+}
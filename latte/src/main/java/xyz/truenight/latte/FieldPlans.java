@@ -0,0 +1,360 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Field plans of {@link ReflectiveAdapter} kept in a file between runs, see
+ * {@link Latte.Builder#fieldPlans(File)}.
+ * <p>
+ * A plan lists the compared and cloned fields of a type in declaration order, with their
+ * resolved types, their {@link IgnoreField} flags and how their adapters are found, so that
+ * a type found in the file is bound without scanning its hierarchy or resolving generic
+ * field types. Every plan is stored with a fingerprint of the bytecode of the classes in the
+ * hierarchy; a plan whose fingerprint doesn't match the loaded classes is scanned again and
+ * replaced. Types whose bytecode can't be read, like on Android, and types with unresolved
+ * type variables are always scanned.
+ * <p>
+ * The file is plain text, one line per type followed by one line per field:
+ * <pre>
+ * type-name  fingerprint  field-count
+ * declaring-class  field-name  kind  ignore-equal  ignore-clone  type-name
+ * </pre>
+ */
+final class FieldPlans {
+
+    /**
+     * Field resolved through {@link Latte#getAdapter(TypeToken)}.
+     */
+    static final int OBJECT = 0;
+    /**
+     * Primitive field read and written without boxing.
+     */
+    static final int PRIMITIVE = 1;
+    /**
+     * Field annotated with {@link UnorderedCollection}.
+     */
+    static final int UNORDERED = 2;
+    /**
+     * Field annotated with {@link UseAdapter}.
+     */
+    static final int USE_ADAPTER = 3;
+
+    private static final String HEADER = "# latte field plans 1";
+    private static final long NO_FINGERPRINT = -1;
+    private static final List<Class<?>> PRIMITIVES = Arrays.<Class<?>>asList(boolean.class, byte.class,
+            char.class, short.class, int.class, long.class, float.class, double.class);
+
+    private final File file;
+    private final Map<String, Plan> plans = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Long> fingerprints = new ConcurrentHashMap<>();
+
+    private FieldPlans(File file) {
+        this.file = file;
+    }
+
+    /**
+     * A field of a plan.
+     */
+    static final class Entry {
+        final Field field;
+        final Type type;
+        final int kind;
+        final boolean ignoreEqual;
+        final boolean ignoreClone;
+
+        Entry(Field field, Type type, int kind, boolean ignoreEqual, boolean ignoreClone) {
+            this.field = field;
+            this.type = type;
+            this.kind = kind;
+            this.ignoreEqual = ignoreEqual;
+            this.ignoreClone = ignoreClone;
+        }
+    }
+
+    private static final class Plan {
+        final long fingerprint;
+        final String[] fields;
+
+        Plan(long fingerprint, String[] fields) {
+            this.fingerprint = fingerprint;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Reads the plans saved in {@code file}. A missing or unreadable file is an empty one.
+     */
+    static FieldPlans load(File file) {
+        FieldPlans result = new FieldPlans(file);
+        if (!file.isFile()) {
+            return result;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if (!HEADER.equals(reader.readLine())) {
+                return result;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] type = line.split("\t");
+                String[] fields = new String[Integer.parseInt(type[2])];
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = reader.readLine();
+                    if (fields[i] == null) {
+                        return result;
+                    }
+                }
+                result.plans.put(type[0], new Plan(Long.parseLong(type[1], 16), fields));
+            }
+        } catch (IOException | RuntimeException e) {
+            // a damaged file only costs a scan, plans read so far are still checked one by one
+        }
+        return result;
+    }
+
+    /**
+     * Writes the plans of this run, and those read from the file that weren't needed, to
+     * the file.
+     */
+    void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Plan> entry : plans.entrySet()) {
+                Plan plan = entry.getValue();
+                writer.write(entry.getKey() + '\t' + Long.toHexString(plan.fingerprint) + '\t'
+                        + plan.fields.length + '\n');
+                for (String field : plan.fields) {
+                    writer.write(field);
+                    writer.write('\n');
+                }
+            }
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    /**
+     * Returns the saved plan of {@code type} if the classes it was made from haven't
+     * changed, otherwise {@code null}.
+     */
+    List<Entry> get(TypeToken<?> type) {
+        String name = typeName(type.getType());
+        Plan plan = name != null ? plans.get(name) : null;
+        Class<?> raw = type.getRawType();
+        if (plan == null || plan.fingerprint != fingerprint(raw)) {
+            return null;
+        }
+        try {
+            List<Entry> result = new ArrayList<>(plan.fields.length);
+            for (String line : plan.fields) {
+                String[] field = line.split("\t");
+                Class<?> declaringClass = raw;
+                while (!declaringClass.getName().equals(field[0])) {
+                    declaringClass = declaringClass.getSuperclass();
+                }
+                result.add(new Entry(declaringClass.getDeclaredField(field[1]),
+                        parseType(field[5], raw.getClassLoader()), Integer.parseInt(field[2]),
+                        "1".equals(field[3]), "1".equals(field[4])));
+            }
+            return result;
+        } catch (NoSuchFieldException | ClassNotFoundException | RuntimeException e) {
+            // the plan doesn't fit the classes, scan them again
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the plan just made for {@code type}, to be saved with the others.
+     */
+    void put(TypeToken<?> type, List<Entry> entries) {
+        String name = typeName(type.getType());
+        long fingerprint = fingerprint(type.getRawType());
+        if (name == null || fingerprint == NO_FINGERPRINT) {
+            return;
+        }
+        String[] fields = new String[entries.size()];
+        for (int i = 0; i < fields.length; i++) {
+            Entry entry = entries.get(i);
+            String fieldType = typeName(entry.type);
+            if (fieldType == null) {
+                return;
+            }
+            fields[i] = entry.field.getDeclaringClass().getName() + '\t' + entry.field.getName()
+                    + '\t' + entry.kind + '\t' + (entry.ignoreEqual ? 1 : 0)
+                    + '\t' + (entry.ignoreClone ? 1 : 0) + '\t' + fieldType;
+        }
+        plans.put(name, new Plan(fingerprint, fields));
+    }
+
+    /**
+     * CRC of the bytecode of {@code raw} and its superclasses, {@link #NO_FINGERPRINT} if
+     * any of it can't be read.
+     */
+    private long fingerprint(Class<?> raw) {
+        CRC32 crc = new CRC32();
+        for (Class<?> c = raw; c != null && c != Object.class; c = c.getSuperclass()) {
+            Long fingerprint = fingerprints.get(c);
+            if (fingerprint == null) {
+                fingerprint = readFingerprint(c);
+                fingerprints.put(c, fingerprint);
+            }
+            if (fingerprint == NO_FINGERPRINT) {
+                return NO_FINGERPRINT;
+            }
+            for (int shift = 0; shift < 32; shift += 8) {
+                crc.update((int) (fingerprint >>> shift));
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static long readFingerprint(Class<?> c) {
+        String name = c.getName();
+        try (InputStream in = c.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            if (in == null) {
+                return NO_FINGERPRINT;
+            }
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+            return crc.getValue();
+        } catch (IOException | SecurityException e) {
+            return NO_FINGERPRINT;
+        }
+    }
+
+    /**
+     * Name of {@code type} that {@link #parseType(String, ClassLoader)} reads back,
+     * {@code null} if the type has type variables or a parameterized owner.
+     * Classes are written by {@link Class#getName()}, parameterized types as
+     * {@code raw<arg,arg>}, wildcards as {@code ?+bound} or {@code ?-bound} and
+     * generic arrays as {@code component[]}.
+     */
+    static String typeName(Type type) {
+        if (type instanceof Class<?>) {
+            return ((Class<?>) type).getName();
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            if (parameterized.getOwnerType() instanceof ParameterizedType) {
+                return null;
+            }
+            StringBuilder result = new StringBuilder(typeName(parameterized.getRawType())).append('<');
+            Type[] arguments = parameterized.getActualTypeArguments();
+            for (int i = 0; i < arguments.length; i++) {
+                String argument = typeName(arguments[i]);
+                if (argument == null) {
+                    return null;
+                }
+                result.append(i == 0 ? "" : ",").append(argument);
+            }
+            return result.append('>').toString();
+        } else if (type instanceof GenericArrayType) {
+            String component = typeName(((GenericArrayType) type).getGenericComponentType());
+            return component != null ? component + "[]" : null;
+        } else if (type instanceof WildcardType) {
+            WildcardType wildcard = (WildcardType) type;
+            Type[] lowerBounds = wildcard.getLowerBounds();
+            String bound = lowerBounds.length == 1
+                    ? typeName(lowerBounds[0])
+                    : typeName(wildcard.getUpperBounds()[0]);
+            return bound != null ? (lowerBounds.length == 1 ? "?-" : "?+") + bound : null;
+        }
+        return null;
+    }
+
+    static Type parseType(String name, ClassLoader loader) throws ClassNotFoundException {
+        int[] position = {0};
+        Type type = parseType(name, position, loader);
+        Latte.checkArgument(position[0] == name.length());
+        return type;
+    }
+
+    private static Type parseType(String name, int[] position, ClassLoader loader)
+            throws ClassNotFoundException {
+        int start = position[0];
+        Type type;
+        if (name.startsWith("?+", start) || name.startsWith("?-", start)) {
+            position[0] += 2;
+            Type bound = parseType(name, position, loader);
+            type = name.charAt(start + 1) == '+' ? $Types.subtypeOf(bound) : $Types.supertypeOf(bound);
+        } else {
+            int end = start;
+            while (end < name.length() && "<>,".indexOf(name.charAt(end)) == -1
+                    && !name.startsWith("[]", end)) {
+                end++;
+            }
+            Class<?> raw = classForName(name.substring(start, end), loader);
+            position[0] = end;
+            if (end < name.length() && name.charAt(end) == '<') {
+                List<Type> arguments = new ArrayList<>();
+                do {
+                    position[0]++;
+                    arguments.add(parseType(name, position, loader));
+                } while (name.charAt(position[0]) == ',');
+                Latte.checkArgument(name.charAt(position[0]++) == '>');
+                type = $Types.newParameterizedTypeWithOwner(raw.getDeclaringClass(), raw,
+                        arguments.toArray(new Type[arguments.size()]));
+            } else {
+                type = raw;
+            }
+        }
+        while (name.startsWith("[]", position[0])) {
+            position[0] += 2;
+            type = $Types.arrayOf(type);
+        }
+        return type;
+    }
+
+    private static Class<?> classForName(String name, ClassLoader loader) throws ClassNotFoundException {
+        for (Class<?> primitive : PRIMITIVES) {
+            if (primitive.getName().equals(name)) {
+                return primitive;
+            }
+        }
+        return Class.forName(name, false, loader);
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class for which {@code latte-compiler} generates a {@link TypeAdapter} at compile time.
+ * The generated adapter honors {@link IgnoreField}, {@link UseAdapter} and {@link UnorderedCollection}
+ * and is registered through an {@link AdapterRegistry}, so no fields are scanned at runtime by a
+ * {@link Latte} with {@link Latte.Builder#generatedAdapters(boolean) generated adapters} enabled. It
+ * extends {@link GeneratedAdapter}, which handles shared references, cycles and difference paths.
+ * <p>
+ * The class must not be generic, abstract or a non-static inner class. Clones are constructed like
+ * {@link ReflectiveAdapter} constructs them, with a registered {@link InstanceCreator}, the no-args
+ * constructor or without calling a constructor.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateAdapter {
+
+    /**
+     * Suffix of the name of a generated adapter. The adapter of {@code com.example.Outer.Inner}
+     * is {@code com.example.Outer_Inner_LatteAdapter}: the simple names of the class and its
+     * enclosing classes joined with {@link #SEPARATOR}, followed by this suffix, in the package
+     * of the class.
+     */
+    String SUFFIX = "_LatteAdapter";
+
+    /**
+     * Joins the simple names of nested classes in the name of a generated adapter.
+     */
+    char SEPARATOR = '_';
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte;
+
+/**
+ * Base class of the adapters {@code latte-compiler} generates for {@link GenerateAdapter} types.
+ * It runs the same protocol as {@link ReflectiveAdapter}: shared and cyclic references, difference
+ * paths and copies onto existing objects are handled here, the generated subclass only reads and
+ * writes the fields. Clones are created by the constructors of the {@link Latte} the adapter is
+ * bound to, so registered {@link InstanceCreator}s apply.
+ * <p>
+ * For generated code only, the hooks below change together with the compiler.
+ * <p>
+ * Fields are addressed by their index in declaration order, the names passed to the constructor.
+ */
+public abstract class GeneratedAdapter<T> implements TypeAdapter<T>, TypeHasher<T>, TypeDiffer<T>,
+        TypeCopier<T> {
+
+    private final ObjectConstructor<T> constructor;
+    private final boolean immutable;
+    private final String[] names;
+    private final int[] equalityPlan;
+    private final int[] clonePlan;
+
+    /**
+     * @param latte        instance the adapter is bound to
+     * @param type         the adapted class
+     * @param names        names of the fields
+     * @param equalityPlan indexes of the compared fields, cheapest first
+     * @param clonePlan    indexes of the cloned fields
+     */
+    protected GeneratedAdapter(Latte latte, Class<T> type, String[] names, int[] equalityPlan, int[] clonePlan) {
+        this.constructor = latte.getConstructor(TypeToken.get(type));
+        this.immutable = Immutables.isImmutable(type);
+        this.names = names;
+        this.equalityPlan = equalityPlan;
+        this.clonePlan = clonePlan;
+    }
+
+    /**
+     * Compares the fields of the equality plan in order.
+     *
+     * @return name of the first field that differs, {@code null} if all are equal
+     */
+    protected abstract String equalFields(T a, T b) throws IllegalAccessException;
+
+    /**
+     * Clones the fields of the clone plan from {@code value} into {@code copy}.
+     */
+    protected abstract void cloneFields(T value, T copy) throws IllegalAccessException;
+
+    /**
+     * Combines the hashes of the fields of the equality plan, see {@link ReflectiveAdapter#hash(Object)}.
+     */
+    protected abstract int hashFields(T value) throws IllegalAccessException;
+
+    /**
+     * Adapter of field {@code field}, the adapter of the boxed type for primitives.
+     */
+    protected abstract TypeAdapter<Object> adapter(int field);
+
+    /**
+     * Reads field {@code field} of {@code value}, boxed if it is primitive.
+     */
+    protected abstract Object get(int field, T value) throws IllegalAccessException;
+
+    /**
+     * Writes field {@code field} of {@code value}, {@code fieldValue} is never {@code null}
+     * for primitives.
+     */
+    protected abstract void set(int field, T value, Object fieldValue) throws IllegalAccessException;
+
+    /**
+     * Hash of {@code value} consistent with {@code adapter}'s equality.
+     */
+    protected static <E> int hash(TypeAdapter<E> adapter, E value) {
+        return Latte.hash(adapter, value);
+    }
+
+    @Override
+    public boolean equal(T a, T b) {
+        Boolean check = Latte.check(a, b);
+        if (check != null) return check;
+
+        EqualContext context = EqualContext.enter();
+        try {
+            int state = context.begin(this, a, b);
+            if (state != EqualContext.NEW) {
+                return state == EqualContext.EQUAL;
+            }
+            String different = equalFields(a, b);
+            if (different != null) {
+                context.notEqual(a.getClass(), different);
+            }
+            context.end(this, a, b, different == null);
+            return different == null;
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        } finally {
+            context.exit();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T clone(T value) {
+        if (value == null || immutable) {
+            return value;
+        }
+
+        CloneContext context = CloneContext.enter();
+        try {
+            T copy = (T) context.get(value);
+            if (copy != null) {
+                return copy;
+            }
+
+            T instance = constructor.construct();
+            copy = (T) context.put(value, instance);
+            if (copy != instance) {
+                return copy;
+            }
+            cloneFields(value, copy);
+            return copy;
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        } finally {
+            context.exit();
+        }
+    }
+
+    @Override
+    public int hash(T value) {
+        if (value == null) {
+            return 0;
+        }
+        HashContext context = HashContext.enter(value);
+        if (context == null) {
+            return 0;
+        }
+        try {
+            return hashFields(value);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        } finally {
+            context.exit();
+        }
+    }
+
+    @Override
+    public void diff(T a, T b, DiffContext context) {
+        Boolean check = Latte.check(a, b);
+        if (check != null) {
+            if (!check) {
+                context.report();
+            }
+            return;
+        }
+        if (!context.enter(a, b)) {
+            return;
+        }
+        try {
+            for (int field : equalityPlan) {
+                if (context.isFull()) {
+                    return;
+                }
+                context.pushField(names[field]);
+                context.diff(adapter(field), get(field, a), get(field, b));
+                context.pop();
+            }
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public T copyInto(T source, T target, CopyContext context) {
+        if (immutable || source == null || target == null || source.getClass() != target.getClass()
+                || !context.reuse(source, target)) {
+            return context.replace(this, source, target);
+        }
+        try {
+            for (int field : clonePlan) {
+                context.pushField(names[field]);
+                Object current = get(field, target);
+                Object copy = context.copy(adapter(field), get(field, source), current);
+                if (copy != current) {
+                    set(field, target, copy);
+                }
+                context.pop();
+            }
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+        return target;
+    }
+}
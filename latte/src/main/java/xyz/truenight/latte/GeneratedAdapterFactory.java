@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Binds types to generated adapters that compare and copy fields directly instead of
+ * going through {@link ReflectiveAdapter}.
+ * <p>
+ * When {@link Latte.Builder#generatedAdapters(boolean)} is enabled, adapters generated by
+ * {@code latte-compiler} for {@link GenerateAdapter} classes are found through the
+ * {@link AdapterRegistry} implementations visible to the class loader of the type. A registry
+ * that can't be loaded or an adapter that can't be created is reported to
+ * {@link LatteListener#onAdapterFailed(Class, Throwable)} and the type falls back to
+ * {@link ReflectiveAdapter}.
+ */
+final class GeneratedAdapterFactory implements TypeAdapterFactory {
+
+    private final Latte latte;
+    /**
+     * Registries by class loader, loaded on the first lookup of a type of the loader.
+     */
+    private final ConcurrentMap<ClassLoader, List<AdapterRegistry>> registries = new ConcurrentHashMap<>();
+
+    GeneratedAdapterFactory(Latte latte) {
+        this.latte = latte;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> TypeAdapter<T> create(TypeToken<T> type) {
+        Class<? super T> raw = type.getRawType();
+        if (!latte.generatedAdapters || raw.isPrimitive() || raw.isArray() || raw.isInterface()
+                || raw.getClassLoader() == null) {
+            return null;
+        }
+
+        for (AdapterRegistry registry : registries(raw)) {
+            try {
+                TypeAdapter<?> adapter = registry.create(latte, raw);
+                if (adapter != null) {
+                    return (TypeAdapter<T>) adapter;
+                }
+            } catch (RuntimeException | LinkageError e) {
+                fail(raw, e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private List<AdapterRegistry> registries(Class<?> raw) {
+        ClassLoader loader = raw.getClassLoader();
+        List<AdapterRegistry> result = registries.get(loader);
+        if (result == null) {
+            result = load(raw);
+            List<AdapterRegistry> loaded = registries.putIfAbsent(loader, result);
+            if (loaded != null) {
+                result = loaded;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the registries visible to the class loader of {@code raw}. A broken registry only
+     * disables its own adapters.
+     */
+    private List<AdapterRegistry> load(Class<?> raw) {
+        List<AdapterRegistry> result = new ArrayList<>();
+        Iterator<AdapterRegistry> iterator = ServiceLoader.load(AdapterRegistry.class, raw.getClassLoader()).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                result.add(iterator.next());
+            } catch (ServiceConfigurationError e) {
+                fail(raw, e);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private void fail(Class<?> type, Throwable error) {
+        LatteListener listener = latte.listener();
+        if (listener != null) {
+            listener.onAdapterFailed(type, error);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+/**
+ * Path of the container values currently being hashed on this thread. A value is
+ * descended into only if it isn't already on the path and the path is shorter than
+ * {@link #MAX_DEPTH}, otherwise it contributes {@code 0}. That keeps the hash of a cyclic
+ * or deeply shared graph finite and cheap, but equality follows cycles around: a two-node
+ * cycle and a self-loop are equal and hash differently. Only acyclic equal values are
+ * guaranteed the same hash, {@link HashIndex} scans for the others.
+ * <p>
+ * The path is a fixed array, so hashing doesn't allocate. The context holds no references
+ * once the outermost value is hashed and stays bound to the thread. {@link GeneratedAdapter}
+ * uses it the same way the built-in container adapters do.
+ */
+final class HashContext {
+
+    /**
+     * Number of nested container values that contribute to a hash.
+     */
+    static final int MAX_DEPTH = 8;
+
+    private static final ThreadLocal<HashContext> CURRENT = new ThreadLocal<HashContext>();
+
+    private final Object[] path = new Object[MAX_DEPTH];
+    private int depth;
+
+    private HashContext() {
+    }
+
+    /**
+     * Starts hashing {@code value}.
+     *
+     * @return the context to {@link #exit()} once {@code value} is hashed, or {@code null}
+     * if {@code value} must not be descended into and hashes to {@code 0}
+     */
+    static HashContext enter(Object value) {
+        HashContext context = CURRENT.get();
+        if (context == null) {
+            context = new HashContext();
+            CURRENT.set(context);
+        }
+        return context.push(value) ? context : null;
+    }
+
+    void exit() {
+        path[--depth] = null;
+    }
+
+    private boolean push(Object value) {
+        if (depth == MAX_DEPTH) {
+            return false;
+        }
+        for (int i = 0; i < depth; i++) {
+            if (path[i] == value) {
+                return false;
+            }
+        }
+        path[depth++] = value;
+        return true;
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.util.Arrays;
+
+/**
+ * Values bucketed by their deep hash, so a value can be matched against them with
+ * expected O(1) deep comparisons. Every value is matched at most once, which makes the
+ * index count multiplicities.
+ * <p>
+ * Hashes of custom adapters and of cyclic values may disagree with equality, so a value
+ * that isn't found in its bucket is looked for among all unmatched values before giving up.
+ */
+final class HashIndex<E> {
+
+    private final TypeAdapterRuntimeTypeWrapper<E> adapter;
+    private final Object[] values;
+    private final int[] hashes;
+    private final boolean[] matched;
+
+    // chains of unmatched values, linked through next
+    private final int[] head;
+    private final int[] next;
+    private final int mask;
+
+    @SuppressWarnings("unchecked")
+    HashIndex(TypeAdapterRuntimeTypeWrapper<E> adapter, Object[] values) {
+        int length = values.length;
+        int buckets = Integer.highestOneBit(Math.max(length, 1) * 2 - 1) << 1;
+        this.adapter = adapter;
+        this.values = values;
+        this.hashes = new int[length];
+        this.matched = new boolean[length];
+        this.head = new int[buckets];
+        this.next = new int[length];
+        this.mask = buckets - 1;
+
+        Arrays.fill(head, -1);
+        for (int i = length - 1; i >= 0; i--) {
+            int hash = adapter.hash((E) values[i]);
+            int bucket = spread(hash) & mask;
+            hashes[i] = hash;
+            next[i] = head[bucket];
+            head[bucket] = i;
+        }
+    }
+
+    /**
+     * Finds an unmatched value equal to {@code value} and marks it matched.
+     *
+     * @return index of the matched value or {@code -1}
+     */
+    @SuppressWarnings("unchecked")
+    int match(E value) {
+        int hash = adapter.hash(value);
+        int bucket = spread(hash) & mask;
+        for (int i = head[bucket]; i != -1; i = next[i]) {
+            if (hashes[i] == hash && adapter.equal(value, (E) values[i])) {
+                take(i);
+                return i;
+            }
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            if (!matched[i] && adapter.equal(value, (E) values[i])) {
+                take(i);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the value at {@code index} has been matched.
+     */
+    boolean isMatched(int index) {
+        return matched[index];
+    }
+
+    private void take(int index) {
+        matched[index] = true;
+        int bucket = spread(hashes[index]) & mask;
+        if (head[bucket] == index) {
+            head[bucket] = next[index];
+            return;
+        }
+        int previous = head[bucket];
+        while (next[previous] != index) {
+            previous = next[previous];
+        }
+        next[previous] = next[index];
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
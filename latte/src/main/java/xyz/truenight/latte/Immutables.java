@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classifies types as immutable. Values of an immutable type are shared instead of cloned.
+ * <p>
+ * A class is immutable if it is
+ * <ul>
+ * <li>a primitive, a wrapper, {@link String}, an enum, {@link Class} or one of the immutable
+ * value types of the JDK Latte knows about</li>
+ * <li>annotated with {@link Immutable}</li>
+ * <li>a class whose fields, including inherited ones, are all final and of immutable types,
+ * and are neither transient nor annotated with {@link IgnoreField} or {@link UseAdapter},
+ * so sharing an instance gives the same result as cloning it</li>
+ * </ul>
+ * Subclasses of {@link BigDecimal}, {@link BigInteger} and of classes annotated with
+ * {@link Immutable} are assumed to be immutable as well when they are the declared type of a field.
+ */
+final class Immutables {
+
+    private static final Set<Class<?>> KNOWN = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            String.class,
+            Boolean.class,
+            Byte.class,
+            Character.class,
+            Short.class,
+            Integer.class,
+            Long.class,
+            Float.class,
+            Double.class,
+            BigDecimal.class,
+            BigInteger.class,
+            URI.class,
+            URL.class,
+            UUID.class,
+            Locale.class,
+            Class.class));
+
+    private static final ConcurrentHashMap<Class<?>, Boolean> CACHE = new ConcurrentHashMap<>();
+
+    private Immutables() {
+        throw new UnsupportedOperationException();
+    }
+
+    static boolean isImmutable(Class<?> type) {
+        Boolean cached = CACHE.get(type);
+        if (cached == null) {
+            cached = classify(type, new HashSet<Class<?>>());
+            CACHE.put(type, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * @param visiting classes being classified, a class that refers back to itself is
+     *                 immutable if the rest of its fields are
+     */
+    private static boolean classify(Class<?> type, Set<Class<?>> visiting) {
+        if (type.isPrimitive() || type.isEnum() || KNOWN.contains(type)
+                || type.isAnnotationPresent(Immutable.class)) {
+            return true;
+        }
+        if (type.isArray() || type.isInterface() || type == Object.class
+                || Modifier.isAbstract(type.getModifiers())) {
+            return false;
+        }
+        Boolean cached = CACHE.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        if (!visiting.add(type)) {
+            return true;
+        }
+
+        for (Class<?> raw = type; raw != Object.class; raw = raw.getSuperclass()) {
+            for (Field field : raw.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                if (!Modifier.isFinal(modifiers)
+                        || Modifier.isTransient(modifiers)
+                        || field.isAnnotationPresent(IgnoreField.class)
+                        || field.isAnnotationPresent(UseAdapter.class)) {
+                    return false;
+                }
+                // a field of a non-final type may hold a mutable subclass
+                Class<?> fieldType = field.getType();
+                boolean exact = fieldType.isPrimitive() || fieldType.isEnum()
+                        || Modifier.isFinal(fieldType.getModifiers())
+                        || KNOWN.contains(fieldType)
+                        || fieldType.isAnnotationPresent(Immutable.class);
+                if (!exact || !classify(fieldType, visiting)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -16,15 +16,23 @@
 
 package xyz.truenight.latte;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
-import java.lang.reflect.TypeVariable;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Latte
@@ -37,22 +45,74 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Latte {
 
-    private static Latte INSTANCE;
-
     private static boolean msDebug;
 
-    public static synchronized Latte getInstance() {
-        if (INSTANCE == null) {
-            INSTANCE = new Latte();
-        }
+    /**
+     * Holds the default instance, which the class loader creates on first use without locking
+     * on later calls.
+     */
+    private static final class InstanceHolder {
+        static final Latte INSTANCE = new Latte();
+    }
 
-        return INSTANCE;
+    /**
+     * Returns the default instance used by the static methods. Instances created with
+     * {@link Builder} have their own adapters and caches.
+     */
+    public static Latte getInstance() {
+        return InstanceHolder.INSTANCE;
     }
 
+    private static final Logger LOGGER = Logger.getLogger(Latte.class.getName());
+
+    /**
+     * Listener of Latte instances that have none while debugging, logs the first field
+     * of every unequal comparison and the failures at {@link Level#FINE}.
+     */
+    private static final LatteListener DEBUG_LISTENER = new LatteListener() {
+        @Override
+        public void onAdapterLookup(Type type, boolean cached) {
+        }
+
+        @Override
+        public void onClone(Class<?> type, long nanos, int nodes) {
+        }
+
+        @Override
+        public void onEqual(Class<?> type, long nanos, int nodes, boolean equal, String difference) {
+            if (!equal && difference != null && LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("\"" + difference + "\" NOT equal");
+            }
+        }
+
+        @Override
+        public void onPreloadFailed(Class<?> type, Throwable error) {
+            LOGGER.log(Level.FINE, "Can't preload " + type.getName(), error);
+        }
+
+        @Override
+        public void onAdapterFailed(Class<?> type, Throwable error) {
+            LOGGER.log(Level.FINE, "Can't use the generated adapter of " + type.getName(), error);
+        }
+    };
+
+    /**
+     * @deprecated install a {@link Builder#listener(LatteListener) listener} instead
+     */
+    @Deprecated
     public static boolean isDebug() {
         return msDebug;
     }
 
+    /**
+     * Logs the first field of every unequal comparison made on a Latte without a
+     * {@link Builder#listener(LatteListener) listener} to {@code java.util.logging} at
+     * {@link Level#FINE}.
+     *
+     * @deprecated install a {@link Builder#listener(LatteListener) listener} instead, such as
+     * {@link LatteMetrics}, which keeps the last difference of every class
+     */
+    @Deprecated
     public static void setDebug(boolean debug) {
         msDebug = debug;
     }
@@ -70,18 +130,66 @@ public class Latte {
     private final Map<TypeToken<?>, TypeAdapter<?>> typeTokenCache
             = new ConcurrentHashMap<TypeToken<?>, TypeAdapter<?>>();
 
+    /**
+     * Fast path for raw class lookups. {@link Class} uses identity equality and hash code,
+     * so a hit costs a single probe and never allocates a {@link TypeToken}.
+     */
+    private final Map<Class<?>, TypeAdapter<?>> rawTypeCache
+            = new ConcurrentHashMap<Class<?>, TypeAdapter<?>>();
+
+    /**
+     * Factories of adapters for fixed classes, by raw class. Asked after
+     * {@link #annotationTypeAdapterFactory} and before {@link #factories}.
+     */
+    private final Map<Class<?>, TypeAdapterFactory> exactFactories;
+
+    /**
+     * Factories that have to inspect the type, asked in order.
+     */
     private final List<TypeAdapterFactory> factories;
 
     private final AnnotationTypeAdapterFactory annotationTypeAdapterFactory;
 
     private final ConstructorConstructor constructorConstructor;
 
+    /**
+     * Whether generated adapters are preferred over {@link ReflectiveAdapter}.
+     */
+    boolean generatedAdapters;
+
+    /**
+     * Whether collections and maps of interface typed fields are cloned lazily.
+     */
+    boolean lazyClone;
+
+    /**
+     * Pool that clones containers of at least {@link #parallelThreshold} elements in
+     * parallel, {@code null} if cloning is sequential.
+     */
+    ForkJoinPool parallelPool;
+    int parallelThreshold;
+
+    /**
+     * Pool that compares containers of at least {@link #parallelEqualThreshold} elements
+     * in parallel, {@code null} if comparison is sequential.
+     */
+    ForkJoinPool parallelEqualPool;
+    int parallelEqualThreshold;
+
+    /**
+     * Field plans kept between runs, {@code null} if every type is scanned.
+     */
+    FieldPlans fieldPlans;
+
+    private LatteListener listener;
+
+    private Future<Map<Class<?>, Throwable>> preload;
+
     public Latte() {
-        constructorConstructor = new ConstructorConstructor(Collections.<Type, InstanceCreator<?>>emptyMap());
+        constructorConstructor = new ConstructorConstructor(new HashMap<Type, InstanceCreator<?>>());
         List<TypeAdapterFactory> factories = new ArrayList<>();
 
-        annotationTypeAdapterFactory = new AnnotationTypeAdapterFactory(constructorConstructor);
-        factories.add(annotationTypeAdapterFactory);
+        annotationTypeAdapterFactory = new AnnotationTypeAdapterFactory(this, constructorConstructor);
 
         // type adapters for basic platform types
         factories.add(TypeAdapters.PRIMITIVE_FACTORY);
@@ -98,12 +206,30 @@ public class Latte {
         factories.add(TypeAdapters.CALENDAR_FACTORY);
         factories.add(TypeAdapters.CLASS_FACTORY);
 
-        factories.add(ArrayTypeAdapter.FACTORY);
-        factories.add(CollectionTypeAdapter.newFactory(constructorConstructor));
-        factories.add(MapTypeAdapter.newFactory(constructorConstructor));
-        factories.add(ReflectiveAdapter.newFactory(constructorConstructor));
-
+        factories.add(TypeAdapters.PRIMITIVE_ARRAY_FACTORY);
+        factories.add(ArrayTypeAdapter.newFactory(this));
+        factories.add(CollectionTypeAdapter.newFactory(this, constructorConstructor));
+        factories.add(MapTypeAdapter.newFactory(this, constructorConstructor));
+        factories.add(new GeneratedAdapterFactory(this));
+        factories.add(ReflectiveAdapter.newFactory(this, constructorConstructor));
+
+        // none of the fixed classes is claimed by a factory before it, so asking them
+        // first by class gives the same adapters as asking them in order
+        Map<Class<?>, TypeAdapterFactory> exactFactories = new HashMap<>();
+        for (Iterator<TypeAdapterFactory> i = factories.iterator(); i.hasNext(); ) {
+            TypeAdapterFactory factory = i.next();
+            if (factory instanceof TypeAdapters.ExactFactory) {
+                for (Class<?> c : ((TypeAdapters.ExactFactory) factory).classes) {
+                    if (!exactFactories.containsKey(c)) {
+                        exactFactories.put(c, factory);
+                    }
+                }
+                i.remove();
+            }
+        }
+        this.exactFactories = exactFactories;
         this.factories = factories;
+        this.preload = Preloader.start(this, new Class<?>[0], null);
     }
 
     /**
@@ -129,6 +255,43 @@ public class Latte {
         return getInstance().cloneItem(value);
     }
 
+    /**
+     * Deep hash
+     *
+     * @param value value
+     * @param <T>   type
+     * @return hash code consistent with {@link #equal(Object, Object)} for acyclic values
+     */
+    public static <T> int hash(T value) {
+        return getInstance().hashItem(value);
+    }
+
+    /**
+     * Deep diff
+     *
+     * @param a   value
+     * @param b   value
+     * @param <T> type
+     * @return paths that differ
+     * @see #diffItem(Object, Object, int)
+     */
+    public static <T> List<String> diff(T a, T b) {
+        return getInstance().diffItem(a, b);
+    }
+
+    /**
+     * Deep copy onto an existing value
+     *
+     * @param source value
+     * @param target value to reuse
+     * @param <T>    type
+     * @return copy of {@code source}
+     * @see #copyItemInto(Object, Object, List)
+     */
+    public static <T> T copyInto(T source, T target) {
+        return getInstance().copyItemInto(source, target, null);
+    }
+
     /**
      * Deep clone
      *
@@ -141,7 +304,70 @@ public class Latte {
         if (value == null) {
             return null;
         }
-        return ((TypeAdapter<T>) getAdapter(value.getClass())).clone(value);
+        LatteListener listener = listener();
+        long start = listener != null ? System.nanoTime() : 0;
+        CloneContext context = CloneContext.enter(this);
+        try {
+            T clone = ((TypeAdapter<T>) getAdapter(value.getClass())).clone(value);
+            if (listener != null && context.isOutermost()) {
+                listener.onClone(value.getClass(), System.nanoTime() - start, context.nodes());
+            }
+            return clone;
+        } finally {
+            context.exit();
+        }
+    }
+
+    /**
+     * Deep copy onto an existing value. Copies {@code source} onto {@code target} reusing its
+     * objects, collections and arrays wherever the shapes of both graphs match, and allocates
+     * clones only where they don't: for objects of another class, arrays of another length,
+     * elements and entries {@code target} lacks, and immutable values.
+     * <p>
+     * The result is {@link #isEqual(Object, Object) equal} to {@code source}. It is
+     * {@code target} itself unless the roots don't match. Reused collections and maps must be
+     * modifiable, as the collections of a clone are.
+     *
+     * @param source  value
+     * @param target  value to reuse, e.g. an earlier clone of {@code source}
+     * @param changed list the paths whose values changed are added to, {@code null} to skip
+     *                the comparisons that finds them
+     * @param <T>     type
+     * @return copy of {@code source}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T copyItemInto(T source, T target, List<String> changed) {
+        if (source == null) {
+            if (target != null && changed != null) {
+                changed.add("");
+            }
+            return null;
+        }
+        CloneContext context = CloneContext.enter(this);
+        try {
+            CopyContext copy = new CopyContext(context, changed);
+            return copy.copy((TypeAdapter<T>) getAdapter(source.getClass()), source, target);
+        } finally {
+            context.exit();
+        }
+    }
+
+    /**
+     * Deep hash. Acyclic values that are {@link #isEqual(Object, Object) equal} and of the
+     * same class have the same hash. Cycles and nesting deeper than 8 containers don't
+     * contribute to the hash, so equal values whose cycles differ in length, such as a
+     * two-node cycle and a self-loop, may hash differently.
+     *
+     * @param value value
+     * @param <T>   type
+     * @return hash code
+     */
+    @SuppressWarnings("unchecked")
+    public <T> int hashItem(T value) {
+        if (value == null) {
+            return 0;
+        }
+        return hash((TypeAdapter<T>) getAdapter(value.getClass()), value);
     }
 
     /**
@@ -158,7 +384,73 @@ public class Latte {
         if (equal != null) return equal;
 
         Class<B> baseClass = (Class<B>) $Types.generalize(a, b);
-        return ((TypeAdapter<B>) getAdapter(baseClass)).equal(a, b);
+        LatteListener listener = listener();
+        long start = listener != null ? System.nanoTime() : 0;
+        EqualContext context = EqualContext.enter(this);
+        try {
+            boolean result = ((TypeAdapter<B>) getAdapter(baseClass)).equal(a, b);
+            if (listener != null && context.isOutermost()) {
+                listener.onEqual(baseClass, System.nanoTime() - start, context.visited(), result,
+                        context.difference());
+            }
+            return result;
+        } finally {
+            context.exit();
+        }
+    }
+
+    /**
+     * Returns the listener calls are reported to, {@code null} if they aren't measured.
+     */
+    LatteListener listener() {
+        return listener != null ? listener : msDebug ? DEBUG_LISTENER : null;
+    }
+
+    /**
+     * Deep diff
+     *
+     * @param a   value
+     * @param b   value
+     * @param <T> type
+     * @return paths that differ
+     * @see #diffItem(Object, Object, int)
+     */
+    public <T extends B, B> List<String> diffItem(T a, T b) {
+        return diffItem(a, b, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Deep diff. Finds the paths at which {@code a} and {@code b} differ in a single
+     * traversal, such as {@code items[3].price} or {@code die["two"].something}. The empty
+     * path stands for the values themselves. Values of unordered collections and of custom
+     * adapters are reported as a whole.
+     *
+     * @param a              value
+     * @param b              value
+     * @param maxDifferences the traversal stops once this many differences have been found
+     * @param <T>            type
+     * @return paths that differ, empty if the values are {@link #isEqual(Object, Object) equal}
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends B, B> List<String> diffItem(T a, T b, int maxDifferences) {
+        checkArgument(maxDifferences > 0);
+        DiffContext diff = new DiffContext(maxDifferences);
+        Boolean equal = check(a, b);
+        if (equal != null) {
+            if (!equal) {
+                diff.report();
+            }
+            return diff.differences();
+        }
+
+        Class<B> baseClass = (Class<B>) $Types.generalize(a, b);
+        EqualContext context = EqualContext.enter(this);
+        try {
+            diff.diff(getAdapter(baseClass), a, b);
+        } finally {
+            context.exit();
+        }
+        return diff.differences();
     }
 
     static <T> Boolean check(T a, T b) {
@@ -190,32 +482,22 @@ public class Latte {
     }
 
     /**
-     * Finds a compatible runtime type if it is more specific
+     * Null-safe equivalent of {@code a.equals(b)}.
      */
-    static Type getRuntimeTypeIfMoreSpecific(Type type, Object value) {
-        if (value != null
-                && (type == Object.class || type instanceof TypeVariable<?> || type instanceof Class<?>)) {
-            type = value.getClass();
-        }
-        return type;
+    static boolean simpleEqual(Object a, Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
     }
 
     /**
-     * Finds a compatible runtime type if it is more specific
+     * Hash of {@code value} consistent with {@code adapter}'s equality, {@code 0} if the
+     * adapter isn't a {@link TypeHasher}.
      */
-    static Type getRuntimeTypeIfMoreSpecific(Type type, Type runtimeType) {
-        if (runtimeType != null
-                && (type == Object.class || type instanceof TypeVariable<?> || type instanceof Class<?>)) {
-            type = runtimeType;
+    @SuppressWarnings("unchecked")
+    static <T> int hash(TypeAdapter<T> adapter, T value) {
+        if (value == null || !(adapter instanceof TypeHasher)) {
+            return 0;
         }
-        return type;
-    }
-
-    /**
-     * Null-safe equivalent of {@code a.equals(b)}.
-     */
-    static boolean simpleEqual(Object a, Object b) {
-        return (a == null) ? (b == null) : a.equals(b);
+        return ((TypeHasher<T>) adapter).hash(value);
     }
 
     static boolean simpleAsStringEqual(Object a, Object b) {
@@ -235,6 +517,9 @@ public class Latte {
      *                                  this {@code type}.
      */
     public TypeAdapter getAdapter(Type type) {
+        if (type instanceof Class<?>) {
+            return getAdapter((Class<?>) type);
+        }
         return getAdapter(TypeToken.get(type));
     }
 
@@ -247,8 +532,21 @@ public class Latte {
      * @throws IllegalArgumentException if this Latte cannot handle
      *                                  this {@code type}.
      */
+    @SuppressWarnings("unchecked")
     public <T> TypeAdapter<T> getAdapter(Class<T> type) {
-        return getAdapter(TypeToken.get(type));
+        // hits of the raw type cache aren't reported, a miss is reported once by getAdapter(TypeToken)
+        TypeAdapter<?> cached = rawTypeCache.get(type);
+        if (cached != null) {
+            return (TypeAdapter<T>) cached;
+        }
+
+        TypeToken<T> typeToken = TypeToken.get(type);
+        TypeAdapter<T> adapter = getAdapter(typeToken);
+        // only adapters that made it into the type token cache are safe to reuse
+        if (typeTokenCache.get(typeToken) == adapter) {
+            rawTypeCache.put(type, adapter);
+        }
+        return adapter;
     }
 
     /**
@@ -263,6 +561,9 @@ public class Latte {
     @SuppressWarnings("unchecked")
     public <T> TypeAdapter<T> getAdapter(TypeToken<T> type) {
         TypeAdapter<?> cached = typeTokenCache.get(type);
+        if (listener != null) {
+            listener.onAdapterLookup(type.getType(), cached != null);
+        }
         if (cached != null) {
             return (TypeAdapter<T>) cached;
         }
@@ -285,17 +586,13 @@ public class Latte {
             FutureTypeAdapter<T> call = new FutureTypeAdapter<T>();
             threadCalls.put(type, call);
 
-            for (TypeAdapterFactory factory : factories) {
-                TypeAdapter<T> candidate = factory.create(type);
-                if (candidate != null) {
-                    call.setDelegate(candidate);
-                    if (!(factory instanceof AnnotationTypeAdapterFactory)) {
-                        typeTokenCache.put(type, candidate);
-                    }
-                    return candidate;
-                }
+            TypeAdapter<T> candidate = create(type);
+            if (candidate == null) {
+                throw new IllegalArgumentException("Latte cannot handle " + type);
             }
-            throw new IllegalArgumentException("Latte cannot handle " + type);
+            call.setDelegate(candidate);
+            typeTokenCache.put(type, candidate);
+            return candidate;
         } finally {
             threadCalls.remove(type);
 
@@ -305,11 +602,53 @@ public class Latte {
         }
     }
 
+    private <T> TypeAdapter<T> create(TypeToken<T> type) {
+        TypeAdapter<T> candidate = annotationTypeAdapterFactory.create(type);
+        if (candidate != null) {
+            return candidate;
+        }
+        TypeAdapterFactory exact = exactFactories.get(type.getRawType());
+        if (exact != null) {
+            return exact.create(type);
+        }
+        for (TypeAdapterFactory factory : factories) {
+            candidate = factory.create(type);
+            if (candidate != null) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
     public <E> TypeAdapter<E> getAnnotationTypeAdapter(TypeToken<E> fieldType, Annotation annotation) {
         return annotationTypeAdapterFactory.create(fieldType, annotation);
     }
 
-    static class FutureTypeAdapter<T> implements TypeAdapter<T> {
+    /**
+     * Returns the result of {@link Builder#preload(Executor, Class[])}: the classes whose
+     * adapters could not be created, with the errors. The future is done with an empty map
+     * if nothing was preloaded.
+     *
+     * @return classes that failed to preload
+     */
+    public Future<Map<Class<?>, Throwable>> preloaded() {
+        return preload;
+    }
+
+    /**
+     * Writes the field plans of the types used so far to the file given to
+     * {@link Builder#fieldPlans(File)}, to be read on the next start. Does nothing if
+     * no file was given.
+     *
+     * @throws IOException if the file can't be written
+     */
+    public void saveFieldPlans() throws IOException {
+        if (fieldPlans != null) {
+            fieldPlans.save();
+        }
+    }
+
+    static class FutureTypeAdapter<T> implements TypeAdapter<T>, TypeHasher<T>, TypeDiffer<T>, TypeCopier<T> {
         private TypeAdapter<T> delegate;
 
         public void setDelegate(TypeAdapter<T> typeAdapter) {
@@ -334,6 +673,30 @@ public class Latte {
             }
             return delegate.clone(value);
         }
+
+        @Override
+        public int hash(T value) {
+            if (delegate == null) {
+                throw new IllegalStateException();
+            }
+            return Latte.hash(delegate, value);
+        }
+
+        @Override
+        public void diff(T a, T b, DiffContext context) {
+            if (delegate == null) {
+                throw new IllegalStateException();
+            }
+            context.diff(delegate, a, b);
+        }
+
+        @Override
+        public T copyInto(T source, T target, CopyContext context) {
+            if (delegate == null) {
+                throw new IllegalStateException();
+            }
+            return context.copy(delegate, source, target);
+        }
     }
 
     static <T> T checkNotNull(T obj) {
@@ -358,6 +721,13 @@ public class Latte {
         constructorConstructor.register(type, instanceCreator);
     }
 
+    /**
+     * Constructor of {@code type}, honoring the registered instance creators.
+     */
+    <T> ObjectConstructor<T> getConstructor(TypeToken<T> type) {
+        return constructorConstructor.get(type);
+    }
+
     /**
      * Remove instance creator for given type
      * @param type type
@@ -368,6 +738,8 @@ public class Latte {
 
     public static class Builder {
         private Latte latte;
+        private final Set<Class<?>> preload = new LinkedHashSet<>();
+        private Executor preloadExecutor;
 
         public Builder() {
             latte = new Latte();
@@ -378,7 +750,132 @@ public class Latte {
             return this;
         }
 
+        /**
+         * Use the adapters {@code latte-compiler} generates for {@link GenerateAdapter} classes,
+         * found through the {@link AdapterRegistry} implementations visible to the class loader
+         * of each type, falling back to {@link ReflectiveAdapter} for the rest. Registries and
+         * adapters that fail to load are reported to the listener.
+         *
+         * @param enabled whether generated adapters are used
+         */
+        public Builder generatedAdapters(boolean enabled) {
+            latte.generatedAdapters = enabled;
+            return this;
+        }
+
+        /**
+         * Clone collections and maps held by fields declared as {@link java.util.Collection},
+         * {@link java.util.List}, {@link java.util.Set} or {@link java.util.Map} into views. A
+         * view clones its elements when they are first read, so parts of the snapshot that are
+         * never read cost nothing: a list clones each element on first access, sets and maps
+         * clone all of them on first use. The collection or map is of the class an eager clone
+         * would create.
+         * <p>
+         * A view keeps the source and the objects of the clone call until it has been read.
+         * The source must not change while views made from it are live, changes show in the
+         * elements that haven't been read yet.
+         *
+         * @param enabled whether cloning is lazy
+         */
+        public Builder lazyClone(boolean enabled) {
+            latte.lazyClone = enabled;
+            return this;
+        }
+
+        /**
+         * Clone the elements of collections, maps and object arrays of at least
+         * {@code threshold} elements in parallel on {@code pool}. The copies are added to the
+         * cloned container in source order.
+         * <p>
+         * The tasks share one identity table, so objects referenced by several elements are
+         * copied once and stay shared, as in a sequential clone.
+         *
+         * @param threshold minimal number of elements cloned in parallel
+         * @param pool      pool the elements are cloned on, {@code null} to clone sequentially
+         */
+        public Builder parallelClone(int threshold, ForkJoinPool pool) {
+            checkArgument(threshold > 0);
+            latte.parallelThreshold = threshold;
+            latte.parallelPool = pool;
+            return this;
+        }
+
+        /**
+         * Compare the elements of ordered collections and object arrays of at least
+         * {@code threshold} elements in parallel on {@code pool}. The first difference
+         * found cancels the other tasks of the comparison. The result is the same as
+         * the result of a sequential comparison.
+         *
+         * @param threshold minimal number of elements compared in parallel
+         * @param pool      pool the elements are compared on, {@code null} to compare sequentially
+         */
+        public Builder parallelEqual(int threshold, ForkJoinPool pool) {
+            checkArgument(threshold > 0);
+            latte.parallelEqualThreshold = threshold;
+            latte.parallelEqualPool = pool;
+            return this;
+        }
+
+        /**
+         * Report calls, their durations and adapter lookups to {@code listener}, e.g. a
+         * {@link LatteMetrics}.
+         *
+         * @param listener listener, {@code null} to measure nothing
+         */
+        public Builder listener(LatteListener listener) {
+            latte.listener = listener;
+            return this;
+        }
+
+        /**
+         * Read the field plans of reflected types from {@code file}, so that types found
+         * there are bound without scanning their fields. A plan is only used if the
+         * bytecode of the type and its superclasses hasn't changed since it was written,
+         * otherwise the type is scanned again. Write the plans with
+         * {@link Latte#saveFieldPlans()}.
+         *
+         * @param file file of plans, it doesn't need to exist
+         */
+        public Builder fieldPlans(File file) {
+            latte.fieldPlans = FieldPlans.load(checkNotNull(file));
+            return this;
+        }
+
+        /**
+         * Create the adapters of {@code types}, and of the types of their fields, in
+         * {@link #create()} instead of on their first use.
+         *
+         * @param types classes to preload
+         * @see #preload(Executor, Class[])
+         */
+        public Builder preload(Class<?>... types) {
+            return preload(null, types);
+        }
+
+        /**
+         * Create the adapters of {@code types}, and of the types of their fields, on
+         * {@code executor} once {@link #create()} is called, so that the first calls don't
+         * pay for reflection. Adapters of field values whose class is more specific than the
+         * declared type are still created on first use, preload those classes too.
+         * <p>
+         * Classes that can't be handled don't fail the others, they are reported by
+         * {@link Latte#preloaded()}.
+         *
+         * @param executor executor the classes are preloaded on, {@code null} to preload
+         *                 them in {@link #create()}
+         * @param types    classes to preload
+         */
+        public Builder preload(Executor executor, Class<?>... types) {
+            for (Class<?> type : types) {
+                preload.add(checkNotNull(type));
+            }
+            preloadExecutor = executor;
+            return this;
+        }
+
         public Latte create() {
+            latte.preload = Preloader.start(latte, preload.toArray(new Class<?>[preload.size()]),
+                    preloadExecutor);
             return latte;
         }
     }
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes {@link LatteMetrics} on the platform MBean server. Kept apart from the metrics
+ * because JMX isn't available on Android.
+ */
+public final class LatteJmx {
+
+    private LatteJmx() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Registers {@code metrics} as {@code xyz.truenight.latte:type=Metrics,name=<name>}.
+     *
+     * @return the name to pass to {@link #unregister(ObjectName)}
+     * @throws IllegalStateException if the bean can't be registered
+     */
+    public static ObjectName register(LatteMetrics metrics, String name) {
+        try {
+            ObjectName objectName = new ObjectName("xyz.truenight.latte:type=Metrics,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(metrics), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register Latte metrics " + name, e);
+        }
+    }
+
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't unregister Latte metrics " + objectName, e);
+        }
+    }
+
+    /**
+     * View of {@link LatteMetrics} in open types, maps are keyed by class name.
+     */
+    public interface LatteMetricsMXBean {
+        long getAdapterCacheHits();
+
+        long getAdapterCacheMisses();
+
+        long getPreloadFailures();
+
+        long getAdapterFailures();
+
+        Map<String, Long> getCloneCounts();
+
+        Map<String, Long> getClonedNodes();
+
+        Map<String, Long> getEqualCounts();
+
+        Map<String, Long> getNotEqualCounts();
+
+        Map<String, Long> getComparedNodes();
+
+        Map<String, Long> getCloneLatencyP99Nanos();
+
+        Map<String, Long> getEqualLatencyP99Nanos();
+
+        Map<String, String> getLastDifferences();
+
+        void reset();
+    }
+
+    private static final class Bean implements LatteMetricsMXBean {
+        private static final int CLONES = 0;
+        private static final int CLONED_NODES = 1;
+        private static final int EQUALS = 2;
+        private static final int NOT_EQUAL = 3;
+        private static final int COMPARED_NODES = 4;
+        private static final int CLONE_P99 = 5;
+        private static final int EQUAL_P99 = 6;
+
+        private final LatteMetrics metrics;
+
+        Bean(LatteMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public long getAdapterCacheHits() {
+            return metrics.getCacheHits();
+        }
+
+        @Override
+        public long getAdapterCacheMisses() {
+            return metrics.getCacheMisses();
+        }
+
+        @Override
+        public long getPreloadFailures() {
+            return metrics.getPreloadFailures();
+        }
+
+        @Override
+        public long getAdapterFailures() {
+            return metrics.getAdapterFailures();
+        }
+
+        @Override
+        public Map<String, Long> getCloneCounts() {
+            return collect(CLONES);
+        }
+
+        @Override
+        public Map<String, Long> getClonedNodes() {
+            return collect(CLONED_NODES);
+        }
+
+        @Override
+        public Map<String, Long> getEqualCounts() {
+            return collect(EQUALS);
+        }
+
+        @Override
+        public Map<String, Long> getNotEqualCounts() {
+            return collect(NOT_EQUAL);
+        }
+
+        @Override
+        public Map<String, Long> getComparedNodes() {
+            return collect(COMPARED_NODES);
+        }
+
+        @Override
+        public Map<String, Long> getCloneLatencyP99Nanos() {
+            return collect(CLONE_P99);
+        }
+
+        @Override
+        public Map<String, Long> getEqualLatencyP99Nanos() {
+            return collect(EQUAL_P99);
+        }
+
+        @Override
+        public Map<String, String> getLastDifferences() {
+            Map<String, String> result = new LinkedHashMap<>();
+            for (Map.Entry<Class<?>, LatteMetrics.TypeMetrics> entry : metrics.getTypes().entrySet()) {
+                String difference = entry.getValue().getLastDifference();
+                if (difference != null) {
+                    result.put(entry.getKey().getName(), difference);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void reset() {
+            metrics.reset();
+        }
+
+        private Map<String, Long> collect(int metric) {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (Map.Entry<Class<?>, LatteMetrics.TypeMetrics> entry : metrics.getTypes().entrySet()) {
+                LatteMetrics.TypeMetrics type = entry.getValue();
+                long value;
+                switch (metric) {
+                    case CLONES:
+                        value = type.getClones();
+                        break;
+                    case CLONED_NODES:
+                        value = type.getClonedNodes();
+                        break;
+                    case EQUALS:
+                        value = type.getEquals();
+                        break;
+                    case NOT_EQUAL:
+                        value = type.getNotEqual();
+                        break;
+                    case COMPARED_NODES:
+                        value = type.getComparedNodes();
+                        break;
+                    case CLONE_P99:
+                        value = type.getCloneLatency().getPercentile(0.99);
+                        break;
+                    default:
+                        value = type.getEqualLatency().getPercentile(0.99);
+                        break;
+                }
+                result.put(entry.getKey().getName(), value);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.Executor;
+
+/**
+ * Receives the calls made on a {@link Latte}, installed with
+ * {@link Latte.Builder#listener(LatteListener)}. Without a listener nothing is measured.
+ * <p>
+ * Methods are called on the thread that made the call, possibly by many threads at once.
+ * Only the outermost calls are reported: a clone or comparison made by an adapter while
+ * another one is in progress on the same thread is part of the outer one.
+ *
+ * @see LatteMetrics
+ */
+public interface LatteListener {
+
+    /**
+     * Called when an adapter is looked up with {@link Latte#getAdapter(TypeToken)}. Classes
+     * found in the raw type cache of {@link Latte#getAdapter(Class)} aren't reported.
+     *
+     * @param type   type of the adapter
+     * @param cached whether the adapter was found in a cache or had to be created
+     */
+    void onAdapterLookup(Type type, boolean cached);
+
+    /**
+     * Called when a clone call has finished.
+     *
+     * @param type  class of the cloned value
+     * @param nanos duration of the call
+     * @param nodes number of objects copied, immutable values shared with the source are not counted
+     */
+    void onClone(Class<?> type, long nanos, int nodes);
+
+    /**
+     * Called when an equality call has finished.
+     *
+     * @param type       class the values were compared as
+     * @param nanos      duration of the call
+     * @param nodes      number of pairs of objects compared
+     * @param equal      result of the call
+     * @param difference first field found not equal as {@code type.field}, the deepest one of
+     *                   the first difference, {@code null} if no field was
+     */
+    void onEqual(Class<?> type, long nanos, int nodes, boolean equal, String difference);
+
+    /**
+     * Called when a class passed to {@link Latte.Builder#preload(Executor, Class[])} can't be
+     * resolved. The failure is also returned by {@link Latte#preloaded()}.
+     *
+     * @param type  class that wasn't preloaded
+     * @param error why the adapter couldn't be created or the task couldn't be started
+     */
+    void onPreloadFailed(Class<?> type, Throwable error);
+
+    /**
+     * Called when a generated adapter can't be used, see
+     * {@link Latte.Builder#generatedAdapters(boolean)}. The type falls back to
+     * {@link ReflectiveAdapter}.
+     *
+     * @param type  class whose adapter was looked up
+     * @param error why the adapter couldn't be created, or why a registry visible to the class
+     *              loader of {@code type} couldn't be loaded
+     */
+    void onAdapterFailed(Class<?> type, Throwable error);
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link LatteListener} that counts calls per class, with latency histograms, nodes
+ * visited, adapter cache hits and misses and the last difference found. Safe for use
+ * by many threads; counters are updated without locking.
+ * <p>
+ * Publish it over JMX with {@link LatteJmx#register(LatteMetrics, String)}.
+ */
+public class LatteMetrics implements LatteListener {
+
+    private final ConcurrentMap<Class<?>, TypeMetrics> types = new ConcurrentHashMap<>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong preloadFailures = new AtomicLong();
+    private final AtomicLong adapterFailures = new AtomicLong();
+
+    @Override
+    public void onAdapterLookup(Type type, boolean cached) {
+        (cached ? cacheHits : cacheMisses).incrementAndGet();
+    }
+
+    @Override
+    public void onClone(Class<?> type, long nanos, int nodes) {
+        TypeMetrics metrics = metrics(type);
+        metrics.clones.incrementAndGet();
+        metrics.clonedNodes.addAndGet(nodes);
+        metrics.cloneLatency.record(nanos);
+    }
+
+    @Override
+    public void onEqual(Class<?> type, long nanos, int nodes, boolean equal, String difference) {
+        TypeMetrics metrics = metrics(type);
+        metrics.equals.incrementAndGet();
+        metrics.comparedNodes.addAndGet(nodes);
+        metrics.equalLatency.record(nanos);
+        if (!equal) {
+            metrics.notEqual.incrementAndGet();
+            if (difference != null) {
+                metrics.lastDifference = difference;
+            }
+        }
+    }
+
+    @Override
+    public void onPreloadFailed(Class<?> type, Throwable error) {
+        preloadFailures.incrementAndGet();
+    }
+
+    @Override
+    public void onAdapterFailed(Class<?> type, Throwable error) {
+        adapterFailures.incrementAndGet();
+    }
+
+    private TypeMetrics metrics(Class<?> type) {
+        TypeMetrics metrics = types.get(type);
+        if (metrics == null) {
+            TypeMetrics created = new TypeMetrics();
+            metrics = types.putIfAbsent(type, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of the classes reported so far.
+     */
+    public Map<Class<?>, TypeMetrics> getTypes() {
+        return Collections.unmodifiableMap(types);
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getPreloadFailures() {
+        return preloadFailures.get();
+    }
+
+    public long getAdapterFailures() {
+        return adapterFailures.get();
+    }
+
+    /**
+     * Forgets everything reported so far.
+     */
+    public void reset() {
+        types.clear();
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        preloadFailures.set(0);
+        adapterFailures.set(0);
+    }
+
+    /**
+     * Metrics of the calls made on values of one class.
+     */
+    public static final class TypeMetrics {
+        final AtomicLong clones = new AtomicLong();
+        final AtomicLong clonedNodes = new AtomicLong();
+        final AtomicLong equals = new AtomicLong();
+        final AtomicLong notEqual = new AtomicLong();
+        final AtomicLong comparedNodes = new AtomicLong();
+        final Histogram cloneLatency = new Histogram();
+        final Histogram equalLatency = new Histogram();
+        volatile String lastDifference;
+
+        TypeMetrics() {
+        }
+
+        public long getClones() {
+            return clones.get();
+        }
+
+        public long getClonedNodes() {
+            return clonedNodes.get();
+        }
+
+        public long getEquals() {
+            return equals.get();
+        }
+
+        public long getNotEqual() {
+            return notEqual.get();
+        }
+
+        public long getComparedNodes() {
+            return comparedNodes.get();
+        }
+
+        public Histogram getCloneLatency() {
+            return cloneLatency;
+        }
+
+        public Histogram getEqualLatency() {
+            return equalLatency;
+        }
+
+        /**
+         * Returns the first field found not equal by the last unequal comparison that found
+         * one, as {@code type.field}, or {@code null}.
+         */
+        public String getLastDifference() {
+            return lastDifference;
+        }
+    }
+
+    /**
+     * Latency histogram with power of two buckets: bucket {@code i} counts durations of
+     * less than {@code 2^i} and at least {@code 2^(i - 1)} nanoseconds.
+     */
+    public static final class Histogram {
+        public static final int BUCKETS = 64;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        Histogram() {
+        }
+
+        void record(long nanos) {
+            counts.incrementAndGet(nanos <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos));
+        }
+
+        /**
+         * Returns a copy of the counts of all buckets.
+         */
+        public long[] getCounts() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+            }
+            return copy;
+        }
+
+        /**
+         * Returns the upper bound in nanoseconds of the bucket that holds the given fraction
+         * of the durations, e.g. {@code 0.99}, or 0 if nothing was recorded.
+         */
+        public long getPercentile(double fraction) {
+            long[] copy = getCounts();
+            long total = 0;
+            for (long count : copy) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += copy[i];
+                if (seen >= rank && copy[i] > 0) {
+                    return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Views returned by a lazy clone for fields declared as {@link Collection}, {@link List},
+ * {@link Set} or {@link Map}. A view keeps the source and the identity table of the clone
+ * call, and clones the elements when they are first read: a list clones each element on
+ * first access, other views clone all of them and build the container on their first use.
+ * A view that is never read does no element work.
+ * <p>
+ * The elements are cloned through the table of the call, so references shared with the
+ * rest of the copy stay shared. The source must not change until the view has been read,
+ * changes made before would show in it. The container is of the class an eager clone of
+ * the source would create.
+ */
+final class LazyCollections {
+
+    private LazyCollections() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns true if a field declared as {@code rawType} can hold a view.
+     */
+    static boolean hasView(Class<?> rawType) {
+        return rawType == Collection.class || rawType == List.class
+                || rawType == Set.class || rawType == Map.class;
+    }
+
+    /**
+     * Returns a view of {@code source} that clones its elements with {@code adapter} in
+     * {@code context} and fills a collection made by {@code constructor}.
+     */
+    static <E> Collection<E> view(Class<?> rawType, Collection<?> source, TypeAdapter<E> adapter,
+                                  CloneContext context, ObjectConstructor<? extends Collection<E>> constructor) {
+        if (rawType == List.class) {
+            return new LazyList<>(source, adapter, context, constructor);
+        } else if (rawType == Set.class) {
+            return new LazySet<>(source, adapter, context, constructor);
+        }
+        return new LazyCollection<>(source, adapter, context, constructor);
+    }
+
+    /**
+     * Clones {@code value} in {@code context} after its call has returned. Views of one call
+     * share its table, so they clone one at a time.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T cloneLater(CloneContext context, TypeAdapter<T> adapter, Object value) {
+        if (value == null) {
+            return null;
+        }
+        synchronized (context.root()) {
+            CloneContext previous = CloneContext.bind(context);
+            try {
+                return adapter.clone((T) value);
+            } finally {
+                context.unbind(previous);
+            }
+        }
+    }
+
+    /**
+     * Constructor of the class of the last source a view was made for. Sources of a field
+     * are usually of one class, so the constructor isn't looked up for every view.
+     */
+    static final class SourceConstructor {
+        private volatile Entry last;
+
+        @SuppressWarnings("unchecked")
+        <T> ObjectConstructor<T> get(Latte latte, Class<?> type) {
+            Entry entry = last;
+            if (entry == null || entry.type != type) {
+                entry = new Entry(type, latte.getConstructor(TypeToken.get(type)));
+                last = entry;
+            }
+            return (ObjectConstructor<T>) entry.constructor;
+        }
+
+        private static final class Entry {
+            final Class<?> type;
+            final ObjectConstructor<?> constructor;
+
+            Entry(Class<?> type, ObjectConstructor<?> constructor) {
+                this.type = type;
+                this.constructor = constructor;
+            }
+        }
+    }
+
+    static class LazyCollection<E> implements Collection<E> {
+        // released once the delegate is built
+        private Collection<?> source;
+        private TypeAdapter<E> adapter;
+        private CloneContext context;
+        private ObjectConstructor<? extends Collection<E>> constructor;
+        /**
+         * Source elements and the copies made of them so far, taken on first access.
+         */
+        private Object[] elements;
+        private Object[] copies;
+        volatile Collection<E> delegate;
+
+        /**
+         * Used when a view itself is cloned, the copy is made eagerly into the delegate.
+         */
+        LazyCollection() {
+            this(new ArrayList<E>());
+        }
+
+        LazyCollection(Collection<E> delegate) {
+            this.delegate = delegate;
+        }
+
+        LazyCollection(Collection<?> source, TypeAdapter<E> adapter, CloneContext context,
+                       ObjectConstructor<? extends Collection<E>> constructor) {
+            this.source = source;
+            this.adapter = adapter;
+            this.context = context;
+            this.constructor = constructor;
+        }
+
+        Collection<E> delegate() {
+            Collection<E> result = delegate;
+            if (result == null) {
+                synchronized (this) {
+                    result = delegate;
+                    if (result == null) {
+                        result = constructor.construct();
+                        for (int i = 0, size = sourceSize(); i < size; i++) {
+                            result.add(element(i));
+                        }
+                        delegate = result;
+                        source = null;
+                        adapter = null;
+                        context = null;
+                        constructor = null;
+                        elements = null;
+                        copies = null;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the number of source elements. Called holding the lock of the view before
+         * the delegate is built.
+         */
+        int sourceSize() {
+            return elements != null ? elements.length : source.size();
+        }
+
+        /**
+         * Returns the copy of the source element at {@code index}, cloning it on first
+         * access. Called holding the lock of the view before the delegate is built.
+         */
+        @SuppressWarnings("unchecked")
+        E element(int index) {
+            if (elements == null) {
+                elements = source.toArray();
+                copies = new Object[elements.length];
+            }
+            if (index < 0 || index >= elements.length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + elements.length);
+            }
+            Object copy = copies[index];
+            if (copy == null) {
+                copy = cloneLater(context, adapter, elements[index]);
+                copies[index] = copy;
+            }
+            return (E) copy;
+        }
+
+        @Override
+        public int size() {
+            return delegate().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return delegate().isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return delegate().contains(o);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return delegate().iterator();
+        }
+
+        @Override
+        public Object[] toArray() {
+            return delegate().toArray();
+        }
+
+        @Override
+        public <T> T[] toArray(T[] a) {
+            return delegate().toArray(a);
+        }
+
+        @Override
+        public boolean add(E e) {
+            return delegate().add(e);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return delegate().remove(o);
+        }
+
+        @Override
+        public boolean containsAll(Collection<?> c) {
+            return delegate().containsAll(c);
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            return delegate().addAll(c);
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            return delegate().removeAll(c);
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            return delegate().retainAll(c);
+        }
+
+        @Override
+        public void clear() {
+            delegate().clear();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this || delegate().equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return delegate().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return delegate().toString();
+        }
+    }
+
+    static final class LazyList<E> extends LazyCollection<E> implements List<E> {
+
+        LazyList() {
+            super(new ArrayList<E>());
+        }
+
+        LazyList(Collection<?> source, TypeAdapter<E> adapter, CloneContext context,
+                 ObjectConstructor<? extends Collection<E>> constructor) {
+            super(source, adapter, context, constructor);
+        }
+
+        private List<E> list() {
+            return (List<E>) delegate();
+        }
+
+        @Override
+        public int size() {
+            Collection<E> result = delegate;
+            if (result == null) {
+                synchronized (this) {
+                    if (delegate == null) {
+                        return sourceSize();
+                    }
+                }
+            }
+            return list().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        /**
+         * Iterates by index, so only the elements that are read are cloned.
+         */
+        @Override
+        public Iterator<E> iterator() {
+            if (delegate != null) {
+                return list().iterator();
+            }
+            return new Iterator<E>() {
+                private int cursor;
+                private int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return cursor < size();
+                }
+
+                @Override
+                public E next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    last = cursor;
+                    return get(cursor++);
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    LazyList.this.remove(last);
+                    cursor = last;
+                    last = -1;
+                }
+            };
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends E> c) {
+            return list().addAll(index, c);
+        }
+
+        @Override
+        public E get(int index) {
+            Collection<E> result = delegate;
+            if (result == null) {
+                synchronized (this) {
+                    if (delegate == null) {
+                        return element(index);
+                    }
+                }
+            }
+            return list().get(index);
+        }
+
+        @Override
+        public E set(int index, E element) {
+            return list().set(index, element);
+        }
+
+        @Override
+        public void add(int index, E element) {
+            list().add(index, element);
+        }
+
+        @Override
+        public E remove(int index) {
+            return list().remove(index);
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return list().indexOf(o);
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return list().lastIndexOf(o);
+        }
+
+        @Override
+        public ListIterator<E> listIterator() {
+            return list().listIterator();
+        }
+
+        @Override
+        public ListIterator<E> listIterator(int index) {
+            return list().listIterator(index);
+        }
+
+        @Override
+        public List<E> subList(int fromIndex, int toIndex) {
+            return list().subList(fromIndex, toIndex);
+        }
+    }
+
+    static final class LazySet<E> extends LazyCollection<E> implements Set<E> {
+
+        LazySet() {
+            super(new LinkedHashSet<E>());
+        }
+
+        LazySet(Collection<?> source, TypeAdapter<E> adapter, CloneContext context,
+                ObjectConstructor<? extends Collection<E>> constructor) {
+            super(source, adapter, context, constructor);
+        }
+    }
+
+    static final class LazyMap<K, V> implements Map<K, V> {
+        // released once the delegate is built
+        private Map<?, ?> source;
+        private TypeAdapter<K> keyAdapter;
+        private TypeAdapter<V> valueAdapter;
+        private CloneContext context;
+        private ObjectConstructor<? extends Map<K, V>> constructor;
+        private volatile Map<K, V> delegate;
+
+        /**
+         * Used when a view itself is cloned, the copy is made eagerly into the delegate.
+         */
+        LazyMap() {
+            this.delegate = new LinkedHashMap<>();
+        }
+
+        /**
+         * The keys and values of {@code source} are cloned in {@code context} when the view
+         * is first used.
+         */
+        LazyMap(Map<?, ?> source, TypeAdapter<K> keyAdapter, TypeAdapter<V> valueAdapter,
+                CloneContext context, ObjectConstructor<? extends Map<K, V>> constructor) {
+            this.source = source;
+            this.keyAdapter = keyAdapter;
+            this.valueAdapter = valueAdapter;
+            this.context = context;
+            this.constructor = constructor;
+        }
+
+        Map<K, V> delegate() {
+            Map<K, V> result = delegate;
+            if (result == null) {
+                synchronized (this) {
+                    result = delegate;
+                    if (result == null) {
+                        result = constructor.construct();
+                        for (Map.Entry<?, ?> entry : source.entrySet()) {
+                            K key = cloneLater(context, keyAdapter, entry.getKey());
+                            result.put(key, cloneLater(context, valueAdapter, entry.getValue()));
+                        }
+                        delegate = result;
+                        source = null;
+                        keyAdapter = null;
+                        valueAdapter = null;
+                        context = null;
+                        constructor = null;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int size() {
+            return delegate().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return delegate().isEmpty();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return delegate().containsKey(key);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return delegate().containsValue(value);
+        }
+
+        @Override
+        public V get(Object key) {
+            return delegate().get(key);
+        }
+
+        @Override
+        public V put(K key, V value) {
+            return delegate().put(key, value);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return delegate().remove(key);
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> m) {
+            delegate().putAll(m);
+        }
+
+        @Override
+        public void clear() {
+            delegate().clear();
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return delegate().keySet();
+        }
+
+        @Override
+        public Collection<V> values() {
+            return delegate().values();
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return delegate().entrySet();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o == this || delegate().equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return delegate().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return delegate().toString();
+        }
+    }
+}
@@ -16,18 +16,28 @@
 
 package xyz.truenight.latte;
 
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * Created by true
  * date: 16/05/16
  * time: 16:58
  */
-public class MapTypeAdapter<K, V> implements TypeAdapter<Map<K, V>> {
+public class MapTypeAdapter<K, V> implements TypeAdapter<Map<K, V>>, TypeHasher<Map<K, V>>,
+        TypeDiffer<Map<K, V>>, TypeCopier<Map<K, V>> {
 
-    public static final TypeAdapterFactory newFactory(final ConstructorConstructor constructorConstructor) {
+    public static final TypeAdapterFactory newFactory(final Latte latte, final ConstructorConstructor constructorConstructor) {
         return new TypeAdapterFactory() {
             @SuppressWarnings({"unchecked", "rawtypes"})
             public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
@@ -40,38 +50,52 @@ public class MapTypeAdapter<K, V> implements TypeAdapter<Map<K, V>> {
 
                 Class<?> rawTypeOfSrc = $Types.getRawType(type);
                 Type[] keyAndValueTypes = $Types.getMapKeyAndValueTypes(type, rawTypeOfSrc);
-                TypeAdapter<?> keyAdapter = getKeyAdapter(keyAndValueTypes[0]);
-                TypeAdapter<?> valueAdapter = Latte.getInstance().getAdapter(TypeToken.get(keyAndValueTypes[1]));
+                TypeAdapter<?> keyAdapter = latte.getAdapter(TypeToken.get(keyAndValueTypes[0]));
+                TypeAdapter<?> valueAdapter = latte.getAdapter(TypeToken.get(keyAndValueTypes[1]));
                 ObjectConstructor<T> constructor = constructorConstructor.get(typeToken);
 
                 @SuppressWarnings({"unchecked", "rawtypes"})
                 // we don't define a type parameter for the key or value types
-                        TypeAdapter<T> result = new MapTypeAdapter(keyAndValueTypes[0], keyAdapter,
-                        keyAndValueTypes[1], valueAdapter, constructor);
+                        TypeAdapter<T> result = new MapTypeAdapter(latte, keyAndValueTypes[0], keyAdapter,
+                        keyAndValueTypes[1], valueAdapter, constructor, rawType == Map.class);
                 return result;
             }
         };
     }
 
-
+    private final TypeAdapterRuntimeTypeWrapper<K> keyTypeAdapter;
+    private final TypeAdapterRuntimeTypeWrapper<V> valueTypeAdapter;
+    private final ObjectConstructor<? extends Map<K, V>> constructor;
     /**
-     * Returns a type adapter that writes the value as a string.
+     * Class of the maps {@link #clone(Map)} creates, found on first use.
      */
-    private static TypeAdapter<?> getKeyAdapter(Type keyType) {
-        return Latte.getInstance().getAdapter(TypeToken.get(keyType));
-    }
-
-    private final TypeAdapter<K> keyTypeAdapter;
-    private final TypeAdapter<V> valueTypeAdapter;
-    private final ObjectConstructor<? extends Map<K, V>> constructor;
+    private volatile Class<?> cloneClass;
+    /**
+     * Keys are compared with {@link Object#equals(Object)}, so maps that use equals can be
+     * looked up directly.
+     */
+    private final boolean keysUseEquals;
+    /**
+     * The declared type is {@link Map}, so a lazy clone may return a view.
+     */
+    private final boolean lazyView;
+    private final LazyCollections.SourceConstructor viewConstructor = new LazyCollections.SourceConstructor();
 
-    public MapTypeAdapter(Type keyType, TypeAdapter<K> keyTypeAdapter,
+    public MapTypeAdapter(Latte latte, Type keyType, TypeAdapter<K> keyTypeAdapter,
                           Type valueType, TypeAdapter<V> valueTypeAdapter, ObjectConstructor<? extends Map<K, V>> constructor) {
+        this(latte, keyType, keyTypeAdapter, valueType, valueTypeAdapter, constructor, false);
+    }
+
+    MapTypeAdapter(Latte latte, Type keyType, TypeAdapter<K> keyTypeAdapter, Type valueType,
+                   TypeAdapter<V> valueTypeAdapter, ObjectConstructor<? extends Map<K, V>> constructor,
+                   boolean lazyView) {
         this.keyTypeAdapter =
-                new TypeAdapterRuntimeTypeWrapper<K>(keyTypeAdapter, keyType);
+                new TypeAdapterRuntimeTypeWrapper<K>(latte, keyTypeAdapter, keyType);
         this.valueTypeAdapter =
-                new TypeAdapterRuntimeTypeWrapper<V>(valueTypeAdapter, valueType);
+                new TypeAdapterRuntimeTypeWrapper<V>(latte, valueTypeAdapter, valueType);
         this.constructor = constructor;
+        this.keysUseEquals = keysUseEquals(keyType, keyTypeAdapter);
+        this.lazyView = lazyView;
     }
 
 
@@ -100,49 +124,288 @@ public class MapTypeAdapter<K, V> implements TypeAdapter<Map<K, V>> {
 //            }
 //        }
 
-        return deepEqual(a, b);
+        EqualContext context = EqualContext.enter();
+        try {
+            int state = context.begin(this, a, b);
+            if (state != EqualContext.NEW) {
+                return state == EqualContext.EQUAL;
+            }
+            boolean equal = deepEqual(a, b);
+            context.end(this, a, b, equal);
+            return equal;
+        } finally {
+            context.exit();
+        }
+    }
+
+    /**
+     * Copies the values of keys {@code target} already has onto its values, removes the keys
+     * {@code source} doesn't have and adds clones of the rest. Maps whose keys aren't found
+     * by {@link Object#equals(Object)} are replaced.
+     */
+    @Override
+    public Map<K, V> copyInto(Map<K, V> source, Map<K, V> target, CopyContext context) {
+        if (source == null || target == null || !keysUseEquals || !usesEquals(source) || !usesEquals(target)
+                || !reusable(source, target) || !context.reuse(source, target)) {
+            return context.replace(this, source, target);
+        }
+
+        Iterator<Map.Entry<K, V>> iterator = target.entrySet().iterator();
+        while (iterator.hasNext()) {
+            K key = iterator.next().getKey();
+            if (!source.containsKey(key)) {
+                context.pushKey(key);
+                context.report();
+                context.pop();
+                iterator.remove();
+            }
+        }
+        for (Map.Entry<K, V> entry : source.entrySet()) {
+            K key = entry.getKey();
+            context.pushKey(key);
+            if (target.containsKey(key)) {
+                V current = target.get(key);
+                V copy = context.copy(valueTypeAdapter, entry.getValue(), current);
+                if (copy != current) {
+                    target.put(key, copy);
+                }
+            } else {
+                context.report();
+                target.put(keyTypeAdapter.clone(key), valueTypeAdapter.clone(entry.getValue()));
+            }
+            context.pop();
+        }
+        return target;
+    }
+
+    /**
+     * Returns true if {@code target} is of the class of {@code source} or of the class
+     * {@link #clone(Map)} creates.
+     */
+    private boolean reusable(Map<K, V> source, Map<K, V> target) {
+        Class<?> targetClass = target.getClass();
+        if (targetClass == source.getClass()) {
+            return true;
+        }
+        Class<?> cloneClass = this.cloneClass;
+        if (cloneClass == null) {
+            cloneClass = constructor.construct().getClass();
+            this.cloneClass = cloneClass;
+        }
+        return targetClass == cloneClass;
     }
 
+    /**
+     * Diffs the values of matching keys. Keys of one map that have no match in the other
+     * are differences.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void diff(Map<K, V> a, Map<K, V> b, DiffContext context) {
+        Boolean check = Latte.check(a, b);
+        if (check != null) {
+            if (!check) {
+                context.report();
+            }
+            return;
+        }
+        if (!context.enter(a, b)) {
+            return;
+        }
+        Object[] bKeys = new Object[b.size()];
+        Object[] bValues = new Object[bKeys.length];
+        int i = 0;
+        for (Map.Entry<K, V> bEntry : b.entrySet()) {
+            bKeys[i] = bEntry.getKey();
+            bValues[i] = bEntry.getValue();
+            i++;
+        }
+
+        HashIndex<K> index = new HashIndex<>(keyTypeAdapter, bKeys);
+        for (Map.Entry<K, V> aEntry : a.entrySet()) {
+            if (context.isFull()) {
+                return;
+            }
+            context.pushKey(aEntry.getKey());
+            int match = index.match(aEntry.getKey());
+            if (match == -1) {
+                context.report();
+            } else {
+                context.diff(valueTypeAdapter, aEntry.getValue(), (V) bValues[match]);
+            }
+            context.pop();
+        }
+        for (i = 0; i < bKeys.length && !context.isFull(); i++) {
+            if (!index.isMatched(i)) {
+                context.pushKey(bKeys[i]);
+                context.report();
+                context.pop();
+            }
+        }
+    }
+
+    /**
+     * Sum of the entry hashes, like {@link java.util.AbstractMap#hashCode()}.
+     */
+    @Override
+    public int hash(Map<K, V> value) {
+        if (value == null) {
+            return 0;
+        }
+        HashContext context = HashContext.enter(value);
+        if (context == null) {
+            return 0;
+        }
+        try {
+            int hash = 0;
+            for (Map.Entry<K, V> kvEntry : value.entrySet()) {
+                hash += keyTypeAdapter.hash(kvEntry.getKey()) ^ valueTypeAdapter.hash(kvEntry.getValue());
+            }
+            return hash;
+        } finally {
+            context.exit();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
     @Override
     public Map<K, V> clone(Map<K, V> data) {
         if (data == null) {
             return null;
         }
 
-        Map<K, V> map = constructor.construct();
+        CloneContext context = CloneContext.enter();
+        try {
+            Map<K, V> copy = (Map<K, V>) context.get(data);
+            if (copy != null) {
+                return copy;
+            }
 
-        for (Map.Entry<K, V> kvEntry : data.entrySet()) {
+            if (lazyView && context.isLazy()) {
+                // an eager clone would go through the adapter of the source class
+                Map<K, V> view = new LazyCollections.LazyMap<>(data, keyTypeAdapter, valueTypeAdapter, context,
+                        viewConstructor.<Map<K, V>>get(context.latte(), data.getClass()));
+                return (Map<K, V>) context.put(data, view);
+            }
 
-            K key = keyTypeAdapter.clone(kvEntry.getKey());
-            V value = valueTypeAdapter.clone(kvEntry.getValue());
-            map.put(key, value);
+            if (context.isParallel(data.size())) {
+                Object[] keys = new Object[data.size()];
+                Object[] values = new Object[keys.length];
+                int i = 0;
+                for (Map.Entry<K, V> kvEntry : data.entrySet()) {
+                    keys[i] = kvEntry.getKey();
+                    values[i] = kvEntry.getValue();
+                    i++;
+                }
+                Map<K, V> map = constructor.construct();
+                Object registered = context.put(data, map);
+                if (registered != map) {
+                    return (Map<K, V>) registered;
+                }
+                ParallelClone.cloneAll(context, keyTypeAdapter, keys, keys);
+                ParallelClone.cloneAll(context, valueTypeAdapter, values, values);
+                for (i = 0; i < keys.length; i++) {
+                    map.put((K) keys[i], (V) values[i]);
+                }
+                return map;
+            }
+
+            Map<K, V> map = constructor.construct();
+            Object registered = context.put(data, map);
+            if (registered != map) {
+                return (Map<K, V>) registered;
+            }
+
+            for (Map.Entry<K, V> kvEntry : data.entrySet()) {
+
+                K key = keyTypeAdapter.clone(kvEntry.getKey());
+                V value = valueTypeAdapter.clone(kvEntry.getValue());
+                map.put(key, value);
+            }
+            return map;
+        } finally {
+            context.exit();
         }
-        return map;
+    }
+
+    /**
+     * The key adapter agrees with equals and the key type can't have subclasses that would
+     * be compared by another adapter.
+     */
+    private static boolean keysUseEquals(Type keyType, TypeAdapter<?> keyTypeAdapter) {
+        Class<?> raw = $Types.getRawType(keyType);
+        return (Modifier.isFinal(raw.getModifiers()) || raw.isEnum())
+                && TypeAdapters.agreesWithEquals(keyTypeAdapter);
     }
 
     private boolean deepEqual(Map<K, V> a, Map<K, V> b) {
+        if (keysUseEquals && usesEquals(a) && usesEquals(b)) {
+            // only hash maps hold null keys, the others may reject looking one up
+            if (holdsNullKeys(a) && !holdsNullKeys(b) && a.containsKey(null)) {
+                return false;
+            }
+            for (Map.Entry<K, V> aEntry : a.entrySet()) {
+                K aKey = aEntry.getKey();
+                V bValue = b.get(aKey);
+                if (bValue == null && !b.containsKey(aKey)) {
+                    return false;
+                }
+                if (!valueTypeAdapter.equal(aEntry.getValue(), bValue)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return indexedEqual(a, b);
+    }
+
+    /**
+     * Matches the keys of {@code a} against an index of {@code b}'s keys by their deep hash.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean indexedEqual(Map<K, V> a, Map<K, V> b) {
+        Object[] bKeys = new Object[b.size()];
+        Object[] bValues = new Object[bKeys.length];
+        int i = 0;
+        for (Map.Entry<K, V> bEntry : b.entrySet()) {
+            bKeys[i] = bEntry.getKey();
+            bValues[i] = bEntry.getValue();
+            i++;
+        }
 
-        for (K aKey : a.keySet()) {
-            V aValue = a.get(aKey);
-            K bKey = equality(b.keySet(), aKey);
-            if (bKey == null) {
+        HashIndex<K> index = new HashIndex<>(keyTypeAdapter, bKeys);
+        for (Map.Entry<K, V> aEntry : a.entrySet()) {
+            int match = index.match(aEntry.getKey());
+            if (match == -1) {
                 return false;
             }
-            V bValue = b.get(bKey);
-            if (!valueTypeAdapter.equal(aValue, bValue)) {
+            if (!valueTypeAdapter.equal(aEntry.getValue(), (V) bValues[match])) {
                 return false;
             }
         }
-
         return true;
     }
 
-    private K equality(Set<K> where, K what) {
-        for (K k : where) {
-            if (keyTypeAdapter.equal(k, what)) {
-                return k;
-            }
+    /**
+     * Returns true if {@code map} is of a class known to find its keys with
+     * {@link Object#equals(Object)}. Maps of other classes, such as the wrappers of
+     * {@link java.util.Collections}, may find them by identity or with a comparator.
+     */
+    private static boolean usesEquals(Map<?, ?> map) {
+        Class<?> type = map.getClass();
+        if (type == TreeMap.class || type == ConcurrentSkipListMap.class) {
+            return ((SortedMap<?, ?>) map).comparator() == null;
         }
-        return null;
+        return holdsNullKeys(map) || type == LinkedTreeMap.class || type == EnumMap.class
+                || type == ConcurrentHashMap.class || type == Hashtable.class;
+    }
+
+    /**
+     * Returns true if {@code map} may hold a {@code null} key, maps of the other classes
+     * {@link #usesEquals(Map)} accepts can't.
+     */
+    private static boolean holdsNullKeys(Map<?, ?> map) {
+        Class<?> type = map.getClass();
+        return type == HashMap.class || type == LinkedHashMap.class;
     }
 }
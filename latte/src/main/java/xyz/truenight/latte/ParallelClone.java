@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Clones the elements of a container, in parallel if the options of the call ask for it.
+ * <p>
+ * Every leaf task clones its range in a context forked from the caller's, so copies made
+ * before the fork are reused and cycles back into the container terminate. All leaves register
+ * their copies in one concurrent identity table, the first task to reach an object copies it
+ * and the others use that copy, so objects shared by elements of different leaves stay shared.
+ * The table is joined into the caller's context once all leaves are done.
+ */
+final class ParallelClone {
+
+    /**
+     * Leaves per worker thread, a few more than one so that idle workers can steal.
+     */
+    private static final int LEAVES_PER_THREAD = 4;
+
+    private ParallelClone() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stores the clone of {@code source[i]} in {@code target[i]}. The arrays may be the same.
+     */
+    @SuppressWarnings("unchecked")
+    static <E> void cloneAll(CloneContext context, TypeAdapter<E> adapter, Object[] source, Object[] target) {
+        int length = source.length;
+        if (!context.isParallel(length)) {
+            for (int i = 0; i < length; i++) {
+                target[i] = adapter.clone((E) source[i]);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = context.latte().parallelPool;
+        int leafSize = Math.max(1, length / (pool.getParallelism() * LEAVES_PER_THREAD));
+        ConcurrentMap<CloneContext.Identity, Object> shared = context.sharedCopies();
+        CloneTask<E> task = new CloneTask<>(context, shared, adapter, source, target, 0, length, leafSize);
+        if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+        task.joinInto(context);
+        context.joinCopies(shared);
+    }
+
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class CloneTask<E> extends RecursiveAction {
+        private final CloneContext context;
+        private final ConcurrentMap<CloneContext.Identity, Object> shared;
+        private final TypeAdapter<E> adapter;
+        private final Object[] source;
+        private final Object[] target;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        private CloneTask<E> left;
+        private CloneTask<E> right;
+        private CloneContext forked;
+
+        CloneTask(CloneContext context, ConcurrentMap<CloneContext.Identity, Object> shared,
+                  TypeAdapter<E> adapter, Object[] source, Object[] target, int from, int to, int leafSize) {
+            this.context = context;
+            this.shared = shared;
+            this.adapter = adapter;
+            this.source = source;
+            this.target = target;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void compute() {
+            if (to - from > leafSize) {
+                int middle = (from + to) >>> 1;
+                left = new CloneTask<>(context, shared, adapter, source, target, from, middle, leafSize);
+                right = new CloneTask<>(context, shared, adapter, source, target, middle, to, leafSize);
+                invokeAll(left, right);
+                return;
+            }
+
+            forked = context.fork(shared);
+            CloneContext previous = CloneContext.bind(forked);
+            try {
+                for (int i = from; i < to; i++) {
+                    target[i] = adapter.clone((E) source[i]);
+                }
+            } finally {
+                forked.unbind(previous);
+            }
+        }
+
+        /**
+         * Joins the counts of the leaves, once the whole task is done.
+         */
+        void joinInto(CloneContext context) {
+            if (forked != null) {
+                context.join(forked);
+            } else {
+                left.joinInto(context);
+                right.joinInto(context);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compares the elements of two containers pairwise, in parallel if the options of the call
+ * ask for it.
+ * <p>
+ * Every leaf task compares its range in a context forked from the caller's and stops as
+ * soon as any task of the comparison, or of a comparison it is nested in, found a
+ * difference. Pairs proven by one task aren't seen by the others, so a subgraph shared by
+ * elements of different leaves may be compared more than once. Once all tasks are done their
+ * counts, and the difference of the leaf that found one first, are joined into the caller's
+ * context. Leaves cut short by that difference don't report one of their own.
+ */
+final class ParallelEqual {
+
+    /**
+     * Leaves per worker thread, a few more than one so that idle workers can steal.
+     */
+    private static final int LEAVES_PER_THREAD = 4;
+
+    private ParallelEqual() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns true if {@code a[i]} equals {@code b[i]} for every i. The arrays have the same length.
+     */
+    @SuppressWarnings("unchecked")
+    static <E> boolean equalAll(EqualContext context, TypeAdapter<E> adapter, Object[] a, Object[] b) {
+        int length = a.length;
+        if (!context.isParallel(length)) {
+            for (int i = 0; i < length; i++) {
+                if (!adapter.equal((E) a[i], (E) b[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        ForkJoinPool pool = context.latte().parallelEqualPool;
+        int leafSize = Math.max(1, length / (pool.getParallelism() * LEAVES_PER_THREAD));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        EqualTask<E> task = new EqualTask<>(context, cancelled, adapter, a, b, 0, length, leafSize);
+        if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+        task.joinInto(context);
+        // a comparison cut short by an outer one has no result, false stops the outer one too
+        return !cancelled.get() && !context.isCancelled();
+    }
+
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class EqualTask<E> extends RecursiveAction {
+        private final EqualContext context;
+        private final AtomicBoolean cancelled;
+        private final TypeAdapter<E> adapter;
+        private final Object[] a;
+        private final Object[] b;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        private EqualTask<E> left;
+        private EqualTask<E> right;
+        private EqualContext forked;
+        private boolean different;
+
+        EqualTask(EqualContext context, AtomicBoolean cancelled, TypeAdapter<E> adapter,
+                  Object[] a, Object[] b, int from, int to, int leafSize) {
+            this.context = context;
+            this.cancelled = cancelled;
+            this.adapter = adapter;
+            this.a = a;
+            this.b = b;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void compute() {
+            if (to - from > leafSize) {
+                int middle = (from + to) >>> 1;
+                left = new EqualTask<>(context, cancelled, adapter, a, b, from, middle, leafSize);
+                right = new EqualTask<>(context, cancelled, adapter, a, b, middle, to, leafSize);
+                invokeAll(left, right);
+                return;
+            }
+
+            forked = context.fork(cancelled);
+            EqualContext previous = EqualContext.bind(forked);
+            try {
+                for (int i = from; i < to && !forked.isCancelled(); i++) {
+                    if (!adapter.equal((E) a[i], (E) b[i])) {
+                        // false may only mean that another task cut the comparison short,
+                        // only the first task to find a difference reports one
+                        different = !forked.isCancelled() && cancelled.compareAndSet(false, true);
+                        return;
+                    }
+                }
+            } finally {
+                forked.unbind(previous);
+            }
+        }
+
+        /**
+         * Joins the contexts of the leaves in source order, once the whole task is done.
+         */
+        void joinInto(EqualContext context) {
+            if (forked != null) {
+                context.join(forked, different);
+            } else if (left != null) {
+                left.joinInto(context);
+                right.joinInto(context);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+/**
+ * Path from the root of a traversal to the current value, a stack of fields, indices and
+ * keys. It is turned into a string such as {@code items[3].price} or
+ * {@code die["two"].something} only when asked for, so keeping it costs no allocation.
+ */
+final class Path {
+
+    private static final int INITIAL_DEPTH = 16;
+
+    private static final byte FIELD = 0;
+    private static final byte INDEX = 1;
+    private static final byte KEY = 2;
+
+    // segment i is names[i] or indices[i] depending on kinds[i]
+    private byte[] kinds = new byte[INITIAL_DEPTH];
+    private Object[] names = new Object[INITIAL_DEPTH];
+    private int[] indices = new int[INITIAL_DEPTH];
+    private int depth;
+
+    void pushField(String name) {
+        push(FIELD).names[depth++] = name;
+    }
+
+    void pushIndex(int index) {
+        push(INDEX).indices[depth++] = index;
+    }
+
+    void pushKey(Object key) {
+        push(KEY).names[depth++] = key;
+    }
+
+    void pop() {
+        names[--depth] = null;
+    }
+
+    private Path push(byte kind) {
+        if (depth == kinds.length) {
+            int length = depth * 2;
+            byte[] grownKinds = new byte[length];
+            Object[] grownNames = new Object[length];
+            int[] grownIndices = new int[length];
+            System.arraycopy(kinds, 0, grownKinds, 0, depth);
+            System.arraycopy(names, 0, grownNames, 0, depth);
+            System.arraycopy(indices, 0, grownIndices, 0, depth);
+            kinds = grownKinds;
+            names = grownNames;
+            indices = grownIndices;
+        }
+        kinds[depth] = kind;
+        return this;
+    }
+
+    /**
+     * Returns the path, empty at the root.
+     */
+    @Override
+    public String toString() {
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            switch (kinds[i]) {
+                case FIELD:
+                    if (path.length() > 0) {
+                        path.append('.');
+                    }
+                    path.append(names[i]);
+                    break;
+                case INDEX:
+                    path.append('[').append(indices[i]).append(']');
+                    break;
+                default:
+                    Object key = names[i];
+                    if (key instanceof CharSequence || key instanceof Character) {
+                        path.append("[\"").append(key).append("\"]");
+                    } else {
+                        path.append('[').append(key).append(']');
+                    }
+                    break;
+            }
+        }
+        return path.toString();
+    }
+}
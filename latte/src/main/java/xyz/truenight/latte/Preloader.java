@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resolves the adapters of a set of classes ahead of their first use, see
+ * {@link Latte.Builder#preload(Executor, Class[])}.
+ * <p>
+ * Every class is resolved by a task of its own, on the executor or on the calling thread.
+ * Resolving a class creates the adapters of its declared field types too, so the graph
+ * below it is cached as well. Classes that can't be resolved are collected with the error
+ * and reported to the {@link LatteListener} instead of failing the others; the future
+ * completes once every task is done and is never cancelled.
+ */
+final class Preloader implements Future<Map<Class<?>, Throwable>> {
+
+    private final Latte latte;
+    private final Map<Class<?>, Throwable> failures = new ConcurrentHashMap<>();
+    private final CountDownLatch remaining;
+
+    private Preloader(Latte latte, int count) {
+        this.latte = latte;
+        this.remaining = new CountDownLatch(count);
+    }
+
+    /**
+     * Starts resolving {@code types} on {@code executor}, or resolves them before returning
+     * if it is {@code null}.
+     */
+    static Preloader start(Latte latte, Class<?>[] types, Executor executor) {
+        final Preloader preloader = new Preloader(latte, types.length);
+        for (final Class<?> type : types) {
+            if (executor == null) {
+                preloader.resolve(type);
+                continue;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        preloader.resolve(type);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                preloader.fail(type, e);
+            }
+        }
+        return preloader;
+    }
+
+    private void resolve(Class<?> type) {
+        try {
+            latte.getAdapter(type);
+            remaining.countDown();
+        } catch (RuntimeException | LinkageError e) {
+            fail(type, e);
+        }
+    }
+
+    private void fail(Class<?> type, Throwable error) {
+        failures.put(type, error);
+        try {
+            LatteListener listener = latte.listener();
+            if (listener != null) {
+                listener.onPreloadFailed(type, error);
+            }
+        } finally {
+            remaining.countDown();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return remaining.getCount() == 0;
+    }
+
+    /**
+     * Waits for every class and returns the ones that failed with their errors, empty if
+     * all of them were resolved.
+     */
+    @Override
+    public Map<Class<?>, Throwable> get() throws InterruptedException {
+        remaining.await();
+        return Collections.unmodifiableMap(failures);
+    }
+
+    @Override
+    public Map<Class<?>, Throwable> get(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        if (!remaining.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return Collections.unmodifiableMap(failures);
+    }
+}
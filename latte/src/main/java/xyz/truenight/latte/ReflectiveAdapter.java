@@ -20,41 +20,74 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
-public class ReflectiveAdapter<T> implements TypeAdapter<T> {
+public class ReflectiveAdapter<T> implements TypeAdapter<T>, TypeHasher<T>, TypeDiffer<T>, TypeCopier<T> {
 
     private static final String TAG = ReflectiveAdapter.class.getSimpleName();
 
-    public static final TypeAdapterFactory newFactory(final ConstructorConstructor constructorConstructor) {
+    public static final TypeAdapterFactory newFactory(final Latte latte, final ConstructorConstructor constructorConstructor) {
         return new TypeAdapterFactory() {
             @Override
             public <T> TypeAdapter<T> create(final TypeToken<T> type) {
                 Class<? super T> raw = type.getRawType();
                 ObjectConstructor<T> constructor = constructorConstructor.get(type);
-                return new ReflectiveAdapter<T>(constructor, getBoundFields(type, raw), true);
+                return new ReflectiveAdapter<T>(constructor, getBoundFields(latte, type, raw), true,
+                        Immutables.isImmutable(raw));
             }
         };
     }
 
+    /**
+     * Orders the equality plan so that the cheapest comparisons run first and
+     * {@link #firstDifference} rejects unequal objects as early as possible.
+     */
+    private static final Comparator<BoundField<?>> BY_COST = new Comparator<BoundField<?>>() {
+        @Override
+        public int compare(BoundField<?> lhs, BoundField<?> rhs) {
+            return lhs.cost < rhs.cost ? -1 : (lhs.cost == rhs.cost ? 0 : 1);
+        }
+    };
+
     private final ObjectConstructor<T> constructor;
-    private final List<BoundField> boundFields;
+    private final BoundField<?>[] equalityPlan;
+    private final BoundField<?>[] clonePlan;
     private final boolean firstDifference;
-//    private final Map<String, BoundField> equalFields = new LinkedHashMap<>();
-//    private final Map<String, BoundField> notEqualFields = new LinkedHashMap<>();
-
-//    public Map<String, BoundField> getNotEqualFields() {
-//        return notEqualFields;
-//    }
-//
-//    public Map<String, BoundField> getEqualFields() {
-//        return equalFields;
-//    }
-
-    private ReflectiveAdapter(ObjectConstructor<T> constructor, List<BoundField> boundFields, boolean firstDifference) {
+    private final boolean immutable;
+
+    private ReflectiveAdapter(ObjectConstructor<T> constructor, List<BoundField<?>> boundFields,
+                              boolean firstDifference, boolean immutable) {
         this.constructor = constructor;
-        this.boundFields = boundFields;
+        this.equalityPlan = compileEqualityPlan(boundFields);
+        this.clonePlan = compileClonePlan(boundFields);
         this.firstDifference = firstDifference;
+        this.immutable = immutable;
+    }
+
+    private static BoundField<?>[] compileEqualityPlan(List<BoundField<?>> boundFields) {
+        List<BoundField<?>> plan = new ArrayList<>(boundFields.size());
+        for (BoundField<?> boundField : boundFields) {
+            if (!boundField.ignoreEqual) {
+                plan.add(boundField);
+            }
+        }
+        // stable, so fields of the same cost keep declaration order
+        Collections.sort(plan, BY_COST);
+        return plan.toArray(new BoundField<?>[plan.size()]);
+    }
+
+    private static BoundField<?>[] compileClonePlan(List<BoundField<?>> boundFields) {
+        List<BoundField<?>> plan = new ArrayList<>(boundFields.size());
+        for (BoundField<?> boundField : boundFields) {
+            if (!boundField.ignoreClone) {
+                plan.add(boundField);
+            }
+        }
+        return plan.toArray(new BoundField<?>[plan.size()]);
     }
 
     @Override
@@ -62,20 +95,30 @@ public class ReflectiveAdapter<T> implements TypeAdapter<T> {
         Boolean check = Latte.check(a, b);
         if (check != null) return check;
 
+        EqualContext context = EqualContext.enter();
+        try {
+            int state = context.begin(this, a, b);
+            if (state != EqualContext.NEW) {
+                return state == EqualContext.EQUAL;
+            }
+            boolean equal = equalFields(context, a, b);
+            context.end(this, a, b, equal);
+            return equal;
+        } finally {
+            context.exit();
+        }
+    }
+
+    private boolean equalFields(EqualContext context, T a, T b) {
         boolean equal = true;
         try {
-            for (BoundField boundField : boundFields) {
+            for (BoundField<?> boundField : equalityPlan) {
                 if (!boundField.equal(a, b)) {
-                    if (Latte.isDebug()) {
-                        System.out.println("Latte: \"" + boundField.name + "\" NOT equal");
-                    }
+                    context.notEqual(a.getClass(), boundField.name);
                     if (firstDifference) {
                         return false;
                     }
                     equal = false;
-//                    notEqualFields.put(boundField.name, boundField);
-                } else {
-//                    equalFields.put(boundField.name, boundField);
                 }
             }
         } catch (IllegalArgumentException | IllegalAccessException e) {
@@ -85,101 +128,393 @@ public class ReflectiveAdapter<T> implements TypeAdapter<T> {
         return equal;
     }
 
+    /**
+     * Copies the cloned fields onto {@code target} if it is of the same class.
+     */
     @Override
-    public T clone(T value) {
+    public T copyInto(T source, T target, CopyContext context) {
+        if (immutable || source == null || target == null || source.getClass() != target.getClass()
+                || !context.reuse(source, target)) {
+            return context.replace(this, source, target);
+        }
+        try {
+            for (BoundField<?> boundField : clonePlan) {
+                context.pushField(boundField.name);
+                boundField.copy(source, target, context);
+                context.pop();
+            }
+        } catch (IllegalArgumentException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+        return target;
+    }
+
+    /**
+     * Diffs the compared fields in plan order, cheapest first.
+     */
+    @Override
+    public void diff(T a, T b, DiffContext context) {
+        Boolean check = Latte.check(a, b);
+        if (check != null) {
+            if (!check) {
+                context.report();
+            }
+            return;
+        }
+        if (!context.enter(a, b)) {
+            return;
+        }
+        try {
+            for (BoundField<?> boundField : equalityPlan) {
+                if (context.isFull()) {
+                    return;
+                }
+                context.pushField(boundField.name);
+                boundField.diff(a, b, context);
+                context.pop();
+            }
+        } catch (IllegalArgumentException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Combines the hashes of the compared fields in plan order, like {@link java.util.Arrays#hashCode(Object[])}.
+     */
+    @Override
+    public int hash(T value) {
         if (value == null) {
-            return null;
+            return 0;
+        }
+        HashContext context = HashContext.enter(value);
+        if (context == null) {
+            return 0;
+        }
+        try {
+            int hash = 1;
+            for (BoundField<?> boundField : equalityPlan) {
+                hash = 31 * hash + boundField.hash(value);
+            }
+            return hash;
+        } catch (IllegalArgumentException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        } finally {
+            context.exit();
         }
+    }
 
-        T instance = constructor.construct();
+    @SuppressWarnings("unchecked")
+    @Override
+    public T clone(T value) {
+        if (value == null || immutable) {
+            return value;
+        }
 
+        CloneContext context = CloneContext.enter();
         try {
-            for (BoundField boundField : boundFields) {
+            T copy = (T) context.get(value);
+            if (copy != null) {
+                return copy;
+            }
+
+            T instance = constructor.construct();
+            Object registered = context.put(value, instance);
+            if (registered != instance) {
+                return (T) registered;
+            }
+
+            for (BoundField<?> boundField : clonePlan) {
                 boundField.clone(value, instance);
             }
+            return instance;
         } catch (IllegalArgumentException | IllegalAccessException e) {
             throw new AssertionError(e);
+        } finally {
+            context.exit();
         }
-
-        return instance;
     }
 
-    private static <E> BoundField createBoundField(
-            final Field field, final String name,
-            final TypeToken<E> fieldType) {
+    private static <E> BoundField<?> createBoundField(
+            final Latte latte, final FieldPlans.Entry entry, final TypeToken<E> fieldType) {
+        final Field field = entry.field;
+        String name = field.getName();
+        if (entry.kind == FieldPlans.PRIMITIVE) {
+            return createPrimitiveBoundField(field, name, fieldType.getRawType(),
+                    entry.ignoreEqual, entry.ignoreClone);
+        }
+
+        return new BoundField<E>(name, costOf(fieldType.getRawType()), entry.ignoreEqual, entry.ignoreClone) {
+            final TypeAdapter<E> typeAdapter = getFieldAdapter(latte, field, entry.kind, fieldType);
 
-        return new BoundField<E>(name) {
-            final TypeAdapter<E> typeAdapter = getFieldAdapter(field, fieldType);
+            // the runtime type of a final field type can't be more specific, so call its adapter directly
+            final TypeAdapter<E> dispatcher = isMonomorphic(fieldType.getRawType())
+                    ? typeAdapter
+                    : new TypeAdapterRuntimeTypeWrapper<E>(latte, typeAdapter, fieldType.getType());
 
             final boolean isPrimitive = Primitives.isPrimitive(fieldType.getRawType());
 
             // special casing primitives here saves ~5% on Android...
             // the type adapter and field type always agree
-            boolean equal(Object a, Object b)
-                    throws IllegalArgumentException, IllegalAccessException {
-                IgnoreField annotation = field.getAnnotation(IgnoreField.class);
-                if (annotation != null && annotation.ignoreEqual()) {
-                    return true;
-                }
+            @SuppressWarnings("unchecked")
+            @Override
+            boolean equal(Object a, Object b) throws IllegalArgumentException, IllegalAccessException {
+                E aValue = (E) field.get(a);
+                E bValue = (E) field.get(b);
 
-                return isEqual(a, b);
+                // recursive and shared refs are resolved by the equal context
+                // you can recognize this field equal here
+                return dispatcher.equal(aValue, bValue);
             }
 
-            @SuppressWarnings({"unchecked", "rawtypes"})
-            private boolean isEqual(Object a, Object b) throws IllegalAccessException {
-                Object aValue = field.get(a);
-                Object bValue = field.get(b);
-
-                Boolean equal = Latte.check(a, b);
-                if (equal != null) return equal;
+            @SuppressWarnings("unchecked")
+            @Override
+            int hash(Object value) throws IllegalArgumentException, IllegalAccessException {
+                return Latte.hash(dispatcher, (E) field.get(value));
+            }
 
-                // check recursive ref
-                if (aValue == a && bValue == b) {
-                    return true;
+            @SuppressWarnings("unchecked")
+            @Override
+            void copy(Object source, Object target, CopyContext context) throws IllegalArgumentException, IllegalAccessException {
+                E current = (E) field.get(target);
+                Object copy = context.copy(dispatcher, (E) field.get(source), current);
+                if (copy != current && (copy != null || !isPrimitive)) {
+                    field.set(target, copy);
                 }
+            }
 
-                TypeAdapter t =
-                        new TypeAdapterRuntimeTypeWrapper(this.typeAdapter, fieldType.getType());
-
-                // you can recognize this field equal here
-                return t.equal(aValue, bValue);
+            @SuppressWarnings("unchecked")
+            @Override
+            void diff(Object a, Object b, DiffContext context) throws IllegalArgumentException, IllegalAccessException {
+                context.diff(dispatcher, (E) field.get(a), (E) field.get(b));
             }
 
             @SuppressWarnings("unchecked")
             @Override
             void clone(Object value, Object instance) throws IllegalArgumentException, IllegalAccessException {
-                IgnoreField annotation = field.getAnnotation(IgnoreField.class);
-                if (annotation != null && annotation.ignoreClone()) {
-                    return;
-                }
-                E originalFieldValue = (E) field.get(value);
-                // check recursive ref
-                if (value == originalFieldValue) {
-                    field.set(instance, instance);
-                } else {
-                    TypeAdapter t =
-                            new TypeAdapterRuntimeTypeWrapper(this.typeAdapter, fieldType.getType());
-                    Object fieldValue = t.clone(originalFieldValue);
-                    if (fieldValue != null || !isPrimitive) {
-                        field.set(instance, fieldValue);
-                    }
+                // recursive and shared refs are resolved by the clone context
+                Object fieldValue = dispatcher.clone((E) field.get(value));
+                if (fieldValue != null || !isPrimitive) {
+                    field.set(instance, fieldValue);
                 }
             }
         };
     }
 
-    private static <E> TypeAdapter<E> getFieldAdapter(Field field, TypeToken<E> fieldType) {
-        if (field.isAnnotationPresent(UnorderedCollection.class)) {
-            return Latte.getInstance().getAnnotationTypeAdapter(fieldType, field.getAnnotation(UnorderedCollection.class));
-        } else if (field.isAnnotationPresent(UseAdapter.class)) {
-            return Latte.getInstance().getAnnotationTypeAdapter(fieldType, field.getAnnotation(UseAdapter.class));
+    /**
+     * Bound fields for primitive types read and write through the typed {@link Field}
+     * accessors, so comparing, copying and hashing a primitive never boxes. Floating point values
+     * are compared by their bits to keep the semantics of {@link Double#equals(Object)}, hashes
+     * are the hash codes of the boxed values.
+     */
+    private static BoundField<?> createPrimitiveBoundField(
+            final Field field, String name, Class<?> raw, boolean ignoreEqual, boolean ignoreClone) {
+        if (raw == int.class) {
+            return new BoundField<Integer>(name, 0, ignoreEqual, ignoreClone) {
+                @Override
+                boolean equal(Object a, Object b) throws IllegalAccessException {
+                    return field.getInt(a) == field.getInt(b);
+                }
+
+                @Override
+                void clone(Object value, Object instance) throws IllegalAccessException {
+                    field.setInt(instance, field.getInt(value));
+                }
+
+                @Override
+                int hash(Object value) throws IllegalAccessException {
+                    return field.getInt(value);
+                }
+            };
+        } else if (raw == long.class) {
+            return new BoundField<Long>(name, 0, ignoreEqual, ignoreClone) {
+                @Override
+                boolean equal(Object a, Object b) throws IllegalAccessException {
+                    return field.getLong(a) == field.getLong(b);
+                }
+
+                @Override
+                void clone(Object value, Object instance) throws IllegalAccessException {
+                    field.setLong(instance, field.getLong(value));
+                }
+
+                @Override
+                int hash(Object value) throws IllegalAccessException {
+                    long bits = field.getLong(value);
+                    return (int) (bits ^ (bits >>> 32));
+                }
+            };
+        } else if (raw == double.class) {
+            return new BoundField<Double>(name, 0, ignoreEqual, ignoreClone) {
+                @Override
+                boolean equal(Object a, Object b) throws IllegalAccessException {
+                    return Double.doubleToLongBits(field.getDouble(a)) == Double.doubleToLongBits(field.getDouble(b));
+                }
+
+                @Override
+                void clone(Object value, Object instance) throws IllegalAccessException {
+                    field.setDouble(instance, field.getDouble(value));
+                }
+
+                @Override
+                int hash(Object value) throws IllegalAccessException {
+                    long bits = Double.doubleToLongBits(field.getDouble(value));
+                    return (int) (bits ^ (bits >>> 32));
+                }
+            };
+        } else if (raw == float.class) {
+            return new BoundField<Float>(name, 0, ignoreEqual, ignoreClone) {
+                @Override
+                boolean equal(Object a, Object b) throws IllegalAccessException {
+                    return Float.floatToIntBits(field.getFloat(a)) == Float.floatToIntBits(field.getFloat(b));
+                }
+
+                @Override
+                void clone(Object value, Object instance) throws IllegalAccessException {
+                    field.setFloat(instance, field.getFloat(value));
+                }
+
+                @Override
+                int hash(Object value) throws IllegalAccessException {
+                    return Float.floatToIntBits(field.getFloat(value));
+                }
+            };
+        } else if (raw == boolean.class) {
+            return new BoundField<Boolean>(name, 0, ignoreEqual, ignoreClone) {
+                @Override
+                boolean equal(Object a, Object b) throws IllegalAccessException {
+                    return field.getBoolean(a) == field.getBoolean(b);
+                }
+
+                @Override
+                void clone(Object value, Object instance) throws IllegalAccessException {
+                    field.setBoolean(instance, field.getBoolean(value));
+                }
+
+                @Override
+                int hash(Object value) throws IllegalAccessException {
+                    return field.getBoolean(value) ? 1231 : 1237;
+                }
+            };
+        } else if (raw == byte.class) {
+            return new BoundField<Byte>(name, 0, ignoreEqual, ignoreClone) {
+                @Override
+                boolean equal(Object a, Object b) throws IllegalAccessException {
+                    return field.getByte(a) == field.getByte(b);
+                }
+
+                @Override
+                void clone(Object value, Object instance) throws IllegalAccessException {
+                    field.setByte(instance, field.getByte(value));
+                }
+
+                @Override
+                int hash(Object value) throws IllegalAccessException {
+                    return field.getByte(value);
+                }
+            };
+        } else if (raw == short.class) {
+            return new BoundField<Short>(name, 0, ignoreEqual, ignoreClone) {
+                @Override
+                boolean equal(Object a, Object b) throws IllegalAccessException {
+                    return field.getShort(a) == field.getShort(b);
+                }
+
+                @Override
+                void clone(Object value, Object instance) throws IllegalAccessException {
+                    field.setShort(instance, field.getShort(value));
+                }
+
+                @Override
+                int hash(Object value) throws IllegalAccessException {
+                    return field.getShort(value);
+                }
+            };
+        } else if (raw == char.class) {
+            return new BoundField<Character>(name, 0, ignoreEqual, ignoreClone) {
+                @Override
+                boolean equal(Object a, Object b) throws IllegalAccessException {
+                    return field.getChar(a) == field.getChar(b);
+                }
+
+                @Override
+                void clone(Object value, Object instance) throws IllegalAccessException {
+                    field.setChar(instance, field.getChar(value));
+                }
+
+                @Override
+                int hash(Object value) throws IllegalAccessException {
+                    return field.getChar(value);
+                }
+            };
+        }
+        throw new AssertionError(raw);
+    }
+
+    /**
+     * Estimated cost of comparing a field of {@code raw} type: primitives first,
+     * then strings and enums, then nested objects, then collections, maps and arrays.
+     */
+    private static int costOf(Class<?> raw) {
+        if (raw.isPrimitive() || Primitives.isWrapperType(raw)) {
+            return 0;
+        }
+        if (raw == String.class || raw.isEnum()) {
+            return 1;
+        }
+        if (raw.isArray() || Collection.class.isAssignableFrom(raw) || Map.class.isAssignableFrom(raw)) {
+            return 3;
+        }
+        return 2;
+    }
+
+    private static <E> TypeAdapter<E> getFieldAdapter(Latte latte, Field field, int kind, TypeToken<E> fieldType) {
+        if (kind == FieldPlans.UNORDERED) {
+            return latte.getAnnotationTypeAdapter(fieldType, field.getAnnotation(UnorderedCollection.class));
+        } else if (kind == FieldPlans.USE_ADAPTER) {
+            return latte.getAnnotationTypeAdapter(fieldType, field.getAnnotation(UseAdapter.class));
         } else {
-            return Latte.getInstance().getAdapter(fieldType);
+            return latte.getAdapter(fieldType);
+        }
+    }
+
+    /**
+     * Returns true if a value of {@code raw} type can't have a more specific runtime type.
+     * Arrays are excluded except primitive ones, because {@code Object[]} may hold any array.
+     */
+    private static boolean isMonomorphic(Class<?> raw) {
+        if (raw.isPrimitive() || raw.isEnum()) {
+            return true;
+        }
+        if (raw.isArray()) {
+            return raw.getComponentType().isPrimitive();
+        }
+        return Modifier.isFinal(raw.getModifiers());
+    }
+
+    private static List<BoundField<?>> getBoundFields(Latte latte, TypeToken<?> type, Class<?> raw) {
+        FieldPlans plans = latte.fieldPlans;
+        List<FieldPlans.Entry> plan = plans != null ? plans.get(type) : null;
+        if (plan == null) {
+            plan = scanFields(type, raw);
+            if (plans != null) {
+                plans.put(type, plan);
+            }
         }
+
+        List<BoundField<?>> result = new ArrayList<>(plan.size());
+        for (FieldPlans.Entry entry : plan) {
+            entry.field.setAccessible(true);
+            result.add(createBoundField(latte, entry, TypeToken.get(entry.type)));
+        }
+        return result;
     }
 
-    private static List<BoundField> getBoundFields(TypeToken<?> type, Class<?> raw) {
-        List<BoundField> result = new ArrayList<>();
+    /**
+     * Lists the fields of {@code raw} and its superclasses with their types resolved
+     * against {@code type}.
+     */
+    private static List<FieldPlans.Entry> scanFields(TypeToken<?> type, Class<?> raw) {
+        List<FieldPlans.Entry> result = new ArrayList<>();
         if (raw.isInterface()) {
             return result;
         }
@@ -190,13 +525,10 @@ public class ReflectiveAdapter<T> implements TypeAdapter<T> {
                 if (excludeField(field)) {
                     continue;
                 }
-                field.setAccessible(true);
                 Type fieldType = $Types.resolve(type.getType(), raw, field.getGenericType());
-                String name = field.getName();
-                BoundField boundField = createBoundField(field, name,
-                        TypeToken.get(fieldType));
-                result.add(boundField);
-
+                IgnoreField ignore = field.getAnnotation(IgnoreField.class);
+                result.add(new FieldPlans.Entry(field, fieldType, kindOf(field),
+                        ignore != null && ignore.ignoreEqual(), ignore != null && ignore.ignoreClone()));
             }
             type = TypeToken.get($Types.resolve(type.getType(), raw, raw.getGenericSuperclass()));
             raw = type.getRawType();
@@ -204,16 +536,55 @@ public class ReflectiveAdapter<T> implements TypeAdapter<T> {
         return result;
     }
 
+    /**
+     * Returns how the adapter of {@code field} is found, see {@link FieldPlans#OBJECT}.
+     */
+    private static int kindOf(Field field) {
+        if (field.isAnnotationPresent(UnorderedCollection.class)) {
+            return FieldPlans.UNORDERED;
+        } else if (field.isAnnotationPresent(UseAdapter.class)) {
+            return FieldPlans.USE_ADAPTER;
+        } else if (field.getType().isPrimitive()) {
+            return FieldPlans.PRIMITIVE;
+        } else {
+            return FieldPlans.OBJECT;
+        }
+    }
+
     static abstract class BoundField<E> {
         final String name;
+        final int cost;
+        final boolean ignoreEqual;
+        final boolean ignoreClone;
 
-        protected BoundField(String name) {
+        protected BoundField(String name, int cost, boolean ignoreEqual, boolean ignoreClone) {
             this.name = name;
+            this.cost = cost;
+            this.ignoreEqual = ignoreEqual;
+            this.ignoreClone = ignoreClone;
         }
 
         abstract boolean equal(Object lhs, Object rhs) throws IllegalArgumentException, IllegalAccessException;
 
         abstract void clone(Object value, Object instance) throws IllegalArgumentException, IllegalAccessException;
+
+        abstract int hash(Object value) throws IllegalArgumentException, IllegalAccessException;
+
+        void diff(Object a, Object b, DiffContext context) throws IllegalArgumentException, IllegalAccessException {
+            if (!equal(a, b)) {
+                context.report();
+            }
+        }
+
+        /**
+         * Copies the value of the field, primitive fields are simply cloned.
+         */
+        void copy(Object source, Object target, CopyContext context) throws IllegalArgumentException, IllegalAccessException {
+            if (context.isReporting() && !equal(source, target)) {
+                context.report();
+            }
+            clone(source, target);
+        }
     }
 
     private static boolean excludeField(Field field) {
@@ -17,58 +17,151 @@
 package xyz.truenight.latte;
 
 import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
 
-public class TypeAdapterRuntimeTypeWrapper<T> implements TypeAdapter<T> {
+public class TypeAdapterRuntimeTypeWrapper<T> implements TypeAdapter<T>, TypeHasher<T>, TypeDiffer<T>,
+        TypeCopier<T> {
 
+    /**
+     * Number of runtime types remembered by a single wrapper. Sites that see more
+     * distinct types than this are megamorphic and resolve through {@link Latte}'s cache.
+     */
+    private static final int INLINE_CACHE_SIZE = 4;
+
+    private final Latte latte;
     private final TypeAdapter<T> delegate;
     private final Type type;
+    private final boolean polymorphic;
+    /**
+     * The delegate may clone into a lazy view, which only the adapter of the declared
+     * interface type does.
+     */
+    private final boolean lazyView;
+    private final CacheEntry[] inlineCache = new CacheEntry[INLINE_CACHE_SIZE];
+    private volatile boolean megamorphic;
 
-    TypeAdapterRuntimeTypeWrapper(TypeAdapter<T> delegate, Type type) {
+    public TypeAdapterRuntimeTypeWrapper(Latte latte, TypeAdapter<T> delegate, Type type) {
+        this.latte = latte;
         this.delegate = delegate;
         this.type = type;
+        this.polymorphic = type == Object.class || type instanceof TypeVariable<?> || type instanceof Class<?>;
+        this.lazyView = (delegate instanceof CollectionTypeAdapter || delegate instanceof MapTypeAdapter)
+                && LazyCollections.hasView($Types.getRawType(type));
     }
 
-    @SuppressWarnings({"rawtypes", "unchecked"})
+    @SuppressWarnings("unchecked")
     @Override
     public boolean equal(T a, T b) {
-        TypeAdapter chosen = delegate;
-        Type runtimeType = Latte.getRuntimeTypeIfMoreSpecific(type, $Types.generalize(a, b));
-        if (runtimeType != type) {
-            TypeAdapter runtimeTypeAdapter = Latte.getInstance().getAdapter(runtimeType);
-            if (!(runtimeTypeAdapter instanceof ReflectiveAdapter)) {
-                // The user registered a type adapter for the runtime type, so we will use that
-                chosen = runtimeTypeAdapter;
-            } else if (!(delegate instanceof ReflectiveAdapter)) {
-                // The user registered a type adapter for Base class, so we prefer it over the
-                // reflective type adapter for the runtime type
-                chosen = delegate;
-            } else {
-                // Use the type adapter for runtime type
-                chosen = runtimeTypeAdapter;
-            }
+        TypeAdapter<T> chosen = delegate;
+        if (polymorphic) {
+            Class<?> runtimeType = a != null && b != null && a.getClass() == b.getClass()
+                    ? a.getClass()
+                    : $Types.generalize(a, b);
+            chosen = choose(runtimeType);
         }
         return chosen.equal(a, b);
     }
 
     @SuppressWarnings("unchecked")
+    @Override
+    public void diff(T a, T b, DiffContext context) {
+        TypeAdapter<T> chosen = delegate;
+        if (polymorphic) {
+            Class<?> runtimeType = a != null && b != null && a.getClass() == b.getClass()
+                    ? a.getClass()
+                    : $Types.generalize(a, b);
+            chosen = choose(runtimeType);
+        }
+        context.diff(chosen, a, b);
+    }
+
     @Override
     public T clone(T value) {
         TypeAdapter<T> chosen = delegate;
-        Type runtimeType = Latte.getRuntimeTypeIfMoreSpecific(type, value);
-        if (runtimeType != type) {
-            TypeAdapter runtimeTypeAdapter = Latte.getInstance().getAdapter(runtimeType);
-            if (!(runtimeTypeAdapter instanceof ReflectiveAdapter)) {
-                // The user registered a type adapter for the runtime type, so we will use that
-                chosen = runtimeTypeAdapter;
-            } else if (!(delegate instanceof ReflectiveAdapter)) {
-                // The user registered a type adapter for Base class, so we prefer it over the
-                // reflective type adapter for the runtime type
-                chosen = delegate;
-            } else {
-                // Use the type adapter for runtime type
-                chosen = runtimeTypeAdapter;
-            }
+        if (polymorphic && value != null && !(lazyView && CloneContext.isLazyCall())) {
+            chosen = choose(value.getClass());
         }
         return chosen.clone(value);
     }
+
+    @Override
+    public T copyInto(T source, T target, CopyContext context) {
+        TypeAdapter<T> chosen = delegate;
+        if (polymorphic && source != null) {
+            chosen = choose(source.getClass());
+        }
+        return context.copy(chosen, source, target);
+    }
+
+    @Override
+    public int hash(T value) {
+        if (value == null) {
+            return 0;
+        }
+        TypeAdapter<T> chosen = polymorphic ? choose(value.getClass()) : delegate;
+        return Latte.hash(chosen, value);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private TypeAdapter<T> choose(Class<?> runtimeType) {
+        if (runtimeType == null || runtimeType == type) {
+            return delegate;
+        }
+
+        CacheEntry[] cache = inlineCache;
+        for (CacheEntry entry : cache) {
+            if (entry == null) {
+                break;
+            }
+            if (entry.runtimeType == runtimeType) {
+                return entry.adapter;
+            }
+        }
+
+        TypeAdapter chosen;
+        TypeAdapter runtimeTypeAdapter = latte.getAdapter(runtimeType);
+        if (!(runtimeTypeAdapter instanceof ReflectiveAdapter)) {
+            // The user registered a type adapter for the runtime type, so we will use that
+            chosen = runtimeTypeAdapter;
+        } else if (!(delegate instanceof ReflectiveAdapter)) {
+            // The user registered a type adapter for Base class, so we prefer it over the
+            // reflective type adapter for the runtime type
+            chosen = delegate;
+        } else {
+            // Use the type adapter for runtime type
+            chosen = runtimeTypeAdapter;
+        }
+
+        if (!megamorphic) {
+            remember(runtimeType, chosen);
+        }
+        return chosen;
+    }
+
+    /**
+     * Stores the choice in the first free slot. Entries are immutable, so a racing
+     * reader sees either an empty slot or a complete entry; a lost write only costs
+     * another lookup.
+     */
+    private void remember(Class<?> runtimeType, TypeAdapter<?> chosen) {
+        CacheEntry[] cache = inlineCache;
+        for (int i = 0; i < cache.length; i++) {
+            if (cache[i] == null) {
+                cache[i] = new CacheEntry(runtimeType, chosen);
+                return;
+            }
+        }
+        megamorphic = true;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final class CacheEntry {
+        final Class<?> runtimeType;
+        final TypeAdapter adapter;
+
+        CacheEntry(Class<?> runtimeType, TypeAdapter adapter) {
+            this.runtimeType = runtimeType;
+            this.adapter = adapter;
+        }
+    }
 }
@@ -16,13 +16,10 @@
 
 package xyz.truenight.latte;
 
+import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.InetAddress;
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
@@ -39,8 +36,14 @@ public final class TypeAdapters {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Adapter of a value type, its hash agrees with its equality.
+     */
+    private abstract static class ValueAdapter<T> implements TypeAdapter<T>, TypeHasher<T> {
+    }
+
     @SuppressWarnings("rawtypes")
-    public static final TypeAdapter<Class> CLASS = new TypeAdapter<Class>() {
+    public static final TypeAdapter<Class> CLASS = new ValueAdapter<Class>() {
         @Override
         public boolean equal(Class a, Class b) {
             return Latte.simpleEqual(a, b);
@@ -55,10 +58,15 @@ public final class TypeAdapters {
                         "Attempted to clone a java.lang.Class. Forgot to register a type adapter?");
             }
         }
+
+        @Override
+        public int hash(Class value) {
+            return value == null ? 0 : value.hashCode();
+        }
     };
     public static final TypeAdapterFactory CLASS_FACTORY = newFactory(Class.class, CLASS);
 
-    public static final TypeAdapter<Object> PRIMITIVE_ADAPTER = new TypeAdapter<Object>() {
+    public static final TypeAdapter<Object> PRIMITIVE_ADAPTER = new ValueAdapter<Object>() {
         @Override
         public boolean equal(Object a, Object b) {
             return Latte.simpleEqual(a, b);
@@ -71,6 +79,11 @@ public final class TypeAdapters {
             }
             return value;
         }
+
+        @Override
+        public int hash(Object value) {
+            return value == null ? 0 : value.hashCode();
+        }
     };
 
     public static final TypeAdapterFactory PRIMITIVE_FACTORY = newFactory(PRIMITIVE_ADAPTER,
@@ -85,7 +98,7 @@ public final class TypeAdapters {
             Number.class,
             Character.class);
 
-    public static final TypeAdapter<BigDecimal> BIG_DECIMAL = new TypeAdapter<BigDecimal>() {
+    public static final TypeAdapter<BigDecimal> BIG_DECIMAL = new ValueAdapter<BigDecimal>() {
         @Override
         public boolean equal(BigDecimal a, BigDecimal b) {
             return Latte.simpleEqual(a, b);
@@ -93,16 +106,18 @@ public final class TypeAdapters {
 
         @Override
         public BigDecimal clone(BigDecimal value) {
-            if (value == null) {
-                return null;
-            }
-            return new BigDecimal(value.toString());
+            return value;
+        }
+
+        @Override
+        public int hash(BigDecimal value) {
+            return value == null ? 0 : value.hashCode();
         }
     };
 
     public static final TypeAdapterFactory BIG_DECIMAL_FACTORY = newFactory(BigDecimal.class, TypeAdapters.BIG_DECIMAL);
 
-    public static final TypeAdapter<BigInteger> BIG_INTEGER = new TypeAdapter<BigInteger>() {
+    public static final TypeAdapter<BigInteger> BIG_INTEGER = new ValueAdapter<BigInteger>() {
         @Override
         public boolean equal(BigInteger a, BigInteger b) {
             return Latte.simpleEqual(a, b);
@@ -110,16 +125,18 @@ public final class TypeAdapters {
 
         @Override
         public BigInteger clone(BigInteger value) {
-            if (value == null) {
-                return null;
-            }
-            return new BigInteger(value.toString());
+            return value;
+        }
+
+        @Override
+        public int hash(BigInteger value) {
+            return value == null ? 0 : value.hashCode();
         }
     };
 
     public static final TypeAdapterFactory BIG_INTEGER_FACTORY = newFactory(BigInteger.class, TypeAdapters.BIG_INTEGER);
 
-    public static final TypeAdapter<StringBuilder> STRING_BUILDER = new TypeAdapter<StringBuilder>() {
+    public static final TypeAdapter<StringBuilder> STRING_BUILDER = new ValueAdapter<StringBuilder>() {
         @Override
         public boolean equal(StringBuilder a, StringBuilder b) {
             return Latte.simpleAsStringEqual(a, b);
@@ -132,12 +149,17 @@ public final class TypeAdapters {
             }
             return new StringBuilder(value);
         }
+
+        @Override
+        public int hash(StringBuilder value) {
+            return value == null ? 0 : value.toString().hashCode();
+        }
     };
 
     public static final TypeAdapterFactory STRING_BUILDER_FACTORY =
             newFactory(StringBuilder.class, STRING_BUILDER);
 
-    public static final TypeAdapter<StringBuffer> STRING_BUFFER = new TypeAdapter<StringBuffer>() {
+    public static final TypeAdapter<StringBuffer> STRING_BUFFER = new ValueAdapter<StringBuffer>() {
         @Override
         public boolean equal(StringBuffer a, StringBuffer b) {
             return Latte.simpleAsStringEqual(a, b);
@@ -150,12 +172,17 @@ public final class TypeAdapters {
             }
             return new StringBuffer(value);
         }
+
+        @Override
+        public int hash(StringBuffer value) {
+            return value == null ? 0 : value.toString().hashCode();
+        }
     };
 
     public static final TypeAdapterFactory STRING_BUFFER_FACTORY =
             newFactory(StringBuffer.class, STRING_BUFFER);
 
-    public static final TypeAdapter<java.net.URL> URL = new TypeAdapter<java.net.URL>() {
+    public static final TypeAdapter<java.net.URL> URL = new ValueAdapter<java.net.URL>() {
         @Override
         public boolean equal(java.net.URL a, java.net.URL b) {
             return Latte.simpleAsStringEqual(a, b);
@@ -163,21 +190,19 @@ public final class TypeAdapters {
 
         @Override
         public java.net.URL clone(java.net.URL value) {
-            if (value == null) {
-                return null;
-            }
-            try {
-                return new URL(value.toExternalForm());
-            } catch (MalformedURLException e) {
-                throw new UnsupportedOperationException(
-                        "Attempted to clone a java.net.URL. Forgot to register a type adapter?", e);
-            }
+            return value;
+        }
+
+        @Override
+        public int hash(java.net.URL value) {
+            // URL.hashCode() resolves the host
+            return value == null ? 0 : value.toString().hashCode();
         }
     };
 
     public static final TypeAdapterFactory URL_FACTORY = newFactory(java.net.URL.class, URL);
 
-    public static final TypeAdapter<java.net.URI> URI = new TypeAdapter<java.net.URI>() {
+    public static final TypeAdapter<java.net.URI> URI = new ValueAdapter<java.net.URI>() {
         @Override
         public boolean equal(java.net.URI a, java.net.URI b) {
             return Latte.simpleAsStringEqual(a, b);
@@ -185,21 +210,18 @@ public final class TypeAdapters {
 
         @Override
         public java.net.URI clone(java.net.URI value) {
-            if (value == null) {
-                return null;
-            }
-            try {
-                return new URI(value.toASCIIString());
-            } catch (URISyntaxException e) {
-                throw new UnsupportedOperationException(
-                        "Attempted to clone a java.net.URI. Forgot to register a type adapter?", e);
-            }
+            return value;
+        }
+
+        @Override
+        public int hash(java.net.URI value) {
+            return value == null ? 0 : value.toString().hashCode();
         }
     };
 
     public static final TypeAdapterFactory URI_FACTORY = newFactory(java.net.URI.class, URI);
 
-    public static final TypeAdapter<InetAddress> INET_ADDRESS = new TypeAdapter<InetAddress>() {
+    public static final TypeAdapter<InetAddress> INET_ADDRESS = new ValueAdapter<InetAddress>() {
         @Override
         public boolean equal(InetAddress a, InetAddress b) {
             return Latte.simpleAsStringEqual(a, b);
@@ -209,12 +231,17 @@ public final class TypeAdapters {
         public InetAddress clone(InetAddress value) {
             return value;
         }
+
+        @Override
+        public int hash(InetAddress value) {
+            return value == null ? 0 : value.toString().hashCode();
+        }
     };
 
     public static final TypeAdapterFactory INET_ADDRESS_FACTORY =
             newTypeHierarchyFactory(InetAddress.class, INET_ADDRESS);
 
-    public static final TypeAdapter<java.util.UUID> UUID = new TypeAdapter<java.util.UUID>() {
+    public static final TypeAdapter<java.util.UUID> UUID = new ValueAdapter<java.util.UUID>() {
         @Override
         public boolean equal(java.util.UUID a, java.util.UUID b) {
             return Latte.simpleAsStringEqual(a, b);
@@ -224,11 +251,16 @@ public final class TypeAdapters {
         public java.util.UUID clone(java.util.UUID value) {
             return value;
         }
+
+        @Override
+        public int hash(java.util.UUID value) {
+            return value == null ? 0 : value.hashCode();
+        }
     };
 
     public static final TypeAdapterFactory UUID_FACTORY = newFactory(java.util.UUID.class, UUID);
 
-    public static final TypeAdapter<Calendar> CALENDAR = new TypeAdapter<Calendar>() {
+    public static final TypeAdapter<Calendar> CALENDAR = new ValueAdapter<Calendar>() {
         @Override
         public boolean equal(Calendar a, Calendar b) {
             return Latte.simpleEqual(a, b);
@@ -243,12 +275,17 @@ public final class TypeAdapters {
             calendar.setTimeInMillis(value.getTimeInMillis());
             return calendar;
         }
+
+        @Override
+        public int hash(Calendar value) {
+            return value == null ? 0 : value.hashCode();
+        }
     };
 
     public static final TypeAdapterFactory CALENDAR_FACTORY =
             newFactoryForMultipleTypes(Calendar.class, GregorianCalendar.class, CALENDAR);
 
-    public static final TypeAdapter<Locale> LOCALE = new TypeAdapter<Locale>() {
+    public static final TypeAdapter<Locale> LOCALE = new ValueAdapter<Locale>() {
         @Override
         public boolean equal(Locale a, Locale b) {
             return Latte.simpleEqual(a, b);
@@ -256,21 +293,256 @@ public final class TypeAdapters {
 
         @Override
         public Locale clone(Locale value) {
+            return value;
+        }
+
+        @Override
+        public int hash(Locale value) {
+            return value == null ? 0 : value.hashCode();
+        }
+    };
+
+    public static final TypeAdapterFactory LOCALE_FACTORY = newFactory(Locale.class, LOCALE);
+
+    /*
+     * Primitive arrays are compared, hashed and copied in bulk, elements are never boxed.
+     * Floating point elements are compared by their bits like Double.equals(Object).
+     */
+
+    /**
+     * Bulk copy of a primitive array. An array shared in the source stays shared in the clone.
+     */
+    static Object copyOf(Object array) {
+        CloneContext context = CloneContext.enter();
+        try {
+            Object copy = context.get(array);
+            if (copy == null) {
+                int length = Array.getLength(array);
+                copy = Array.newInstance(array.getClass().getComponentType(), length);
+                System.arraycopy(array, 0, copy, 0, length);
+                copy = context.put(array, copy);
+            }
+            return copy;
+        } finally {
+            context.exit();
+        }
+    }
+
+    /**
+     * Primitive arrays of the same length are copied onto each other in bulk.
+     */
+    private abstract static class PrimitiveArrayAdapter<T> extends ValueAdapter<T> implements TypeCopier<T> {
+        @Override
+        public T copyInto(T source, T target, CopyContext context) {
+            if (source == null || target == null || Array.getLength(source) != Array.getLength(target)
+                    || !context.reuse(source, target)) {
+                return context.replace(this, source, target);
+            }
+            if (context.isReporting() && !equal(source, target)) {
+                context.report();
+            }
+            System.arraycopy(source, 0, target, 0, Array.getLength(source));
+            return target;
+        }
+    }
+
+    public static final TypeAdapter<boolean[]> BOOLEAN_ARRAY = new PrimitiveArrayAdapter<boolean[]>() {
+        @Override
+        public boolean equal(boolean[] a, boolean[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public boolean[] clone(boolean[] value) {
             if (value == null) {
                 return null;
             }
-            return new Locale(value.getLanguage(), value.getCountry(), value.getVariant());
+            return (boolean[]) copyOf(value);
+        }
+
+        @Override
+        public int hash(boolean[] value) {
+            return Arrays.hashCode(value);
         }
     };
 
-    public static final TypeAdapterFactory LOCALE_FACTORY = newFactory(Locale.class, LOCALE);
+    public static final TypeAdapter<byte[]> BYTE_ARRAY = new PrimitiveArrayAdapter<byte[]>() {
+        @Override
+        public boolean equal(byte[] a, byte[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public byte[] clone(byte[] value) {
+            if (value == null) {
+                return null;
+            }
+            return (byte[]) copyOf(value);
+        }
+
+        @Override
+        public int hash(byte[] value) {
+            return Arrays.hashCode(value);
+        }
+    };
+
+    public static final TypeAdapter<char[]> CHAR_ARRAY = new PrimitiveArrayAdapter<char[]>() {
+        @Override
+        public boolean equal(char[] a, char[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public char[] clone(char[] value) {
+            if (value == null) {
+                return null;
+            }
+            return (char[]) copyOf(value);
+        }
+
+        @Override
+        public int hash(char[] value) {
+            return Arrays.hashCode(value);
+        }
+    };
+
+    public static final TypeAdapter<short[]> SHORT_ARRAY = new PrimitiveArrayAdapter<short[]>() {
+        @Override
+        public boolean equal(short[] a, short[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public short[] clone(short[] value) {
+            if (value == null) {
+                return null;
+            }
+            return (short[]) copyOf(value);
+        }
 
-    private static final class EnumTypeAdapter<T extends Enum<T>> implements TypeAdapter<T> {
+        @Override
+        public int hash(short[] value) {
+            return Arrays.hashCode(value);
+        }
+    };
+
+    public static final TypeAdapter<int[]> INT_ARRAY = new PrimitiveArrayAdapter<int[]>() {
+        @Override
+        public boolean equal(int[] a, int[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public int[] clone(int[] value) {
+            if (value == null) {
+                return null;
+            }
+            return (int[]) copyOf(value);
+        }
+
+        @Override
+        public int hash(int[] value) {
+            return Arrays.hashCode(value);
+        }
+    };
+
+    public static final TypeAdapter<long[]> LONG_ARRAY = new PrimitiveArrayAdapter<long[]>() {
+        @Override
+        public boolean equal(long[] a, long[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public long[] clone(long[] value) {
+            if (value == null) {
+                return null;
+            }
+            return (long[]) copyOf(value);
+        }
+
+        @Override
+        public int hash(long[] value) {
+            return Arrays.hashCode(value);
+        }
+    };
+
+    public static final TypeAdapter<float[]> FLOAT_ARRAY = new PrimitiveArrayAdapter<float[]>() {
+        @Override
+        public boolean equal(float[] a, float[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public float[] clone(float[] value) {
+            if (value == null) {
+                return null;
+            }
+            return (float[]) copyOf(value);
+        }
+
+        @Override
+        public int hash(float[] value) {
+            return Arrays.hashCode(value);
+        }
+    };
+
+    public static final TypeAdapter<double[]> DOUBLE_ARRAY = new PrimitiveArrayAdapter<double[]>() {
+        @Override
+        public boolean equal(double[] a, double[] b) {
+            return Arrays.equals(a, b);
+        }
+
+        @Override
+        public double[] clone(double[] value) {
+            if (value == null) {
+                return null;
+            }
+            return (double[]) copyOf(value);
+        }
+
+        @Override
+        public int hash(double[] value) {
+            return Arrays.hashCode(value);
+        }
+    };
+
+    public static final TypeAdapterFactory PRIMITIVE_ARRAY_FACTORY = new TypeAdapterFactory() {
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
+            Class<? super T> rawType = typeToken.getRawType();
+            if (rawType == boolean[].class) {
+                return (TypeAdapter<T>) BOOLEAN_ARRAY;
+            } else if (rawType == byte[].class) {
+                return (TypeAdapter<T>) BYTE_ARRAY;
+            } else if (rawType == char[].class) {
+                return (TypeAdapter<T>) CHAR_ARRAY;
+            } else if (rawType == short[].class) {
+                return (TypeAdapter<T>) SHORT_ARRAY;
+            } else if (rawType == int[].class) {
+                return (TypeAdapter<T>) INT_ARRAY;
+            } else if (rawType == long[].class) {
+                return (TypeAdapter<T>) LONG_ARRAY;
+            } else if (rawType == float[].class) {
+                return (TypeAdapter<T>) FLOAT_ARRAY;
+            } else if (rawType == double[].class) {
+                return (TypeAdapter<T>) DOUBLE_ARRAY;
+            }
+            return null;
+        }
+    };
+
+    private static final class EnumTypeAdapter<T extends Enum<T>> extends ValueAdapter<T> {
         @Override
         public boolean equal(T a, T b) {
             return Latte.simpleEqual(simpleString(a), simpleString(b));
         }
 
+        @Override
+        public int hash(T value) {
+            return value == null ? 0 : value.name().hashCode();
+        }
+
         private String simpleString(T a) {
             return (a == null) ? null : a.name();
         }
@@ -294,6 +566,17 @@ public final class TypeAdapters {
         }
     }
 
+    /**
+     * Returns true if {@code adapter} compares values with {@link Object#equals(Object)}, so
+     * hash based collections find values the way the adapter does.
+     */
+    static boolean agreesWithEquals(TypeAdapter<?> adapter) {
+        return adapter == PRIMITIVE_ADAPTER
+                || adapter == UUID
+                || adapter == LOCALE
+                || adapter instanceof EnumTypeAdapter;
+    }
+
     public static final TypeAdapterFactory ENUM_FACTORY = new TypeAdapterFactory() {
         @SuppressWarnings({"rawtypes", "unchecked"})
         public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
@@ -308,20 +591,40 @@ public final class TypeAdapters {
         }
     };
 
-    public static <TT> TypeAdapterFactory newFactory(
-            final TypeAdapter<? super TT> typeAdapter, final Class<?>... classes) {
-        return new TypeAdapterFactory() {
-            @SuppressWarnings("unchecked") // we use a runtime check to make sure the 'T's equal
-            public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
-                Class<? super T> rawType = typeToken.getRawType();
-                return Arrays.asList(classes).contains(rawType) ? (TypeAdapter<T>) typeAdapter : null;
-            }
+    /**
+     * Factory of an adapter for a fixed set of raw classes. {@link Latte} indexes these
+     * factories by class instead of asking each of them in turn.
+     */
+    static final class ExactFactory implements TypeAdapterFactory {
+        final Class<?>[] classes;
+        private final TypeAdapter<?> typeAdapter;
+
+        ExactFactory(TypeAdapter<?> typeAdapter, Class<?>... classes) {
+            this.classes = classes;
+            this.typeAdapter = typeAdapter;
+        }
 
-            @Override
-            public String toString() {
-                return "Factory[types=" + classes + ",comparator=" + typeAdapter + "]";
+        @SuppressWarnings("unchecked") // we use a runtime check to make sure the 'T's equal
+        @Override
+        public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
+            Class<? super T> rawType = typeToken.getRawType();
+            for (Class<?> c : classes) {
+                if (c == rawType) {
+                    return (TypeAdapter<T>) typeAdapter;
+                }
             }
-        };
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "Factory[types=" + Arrays.toString(classes) + ",adapter=" + typeAdapter + "]";
+        }
+    }
+
+    public static <TT> TypeAdapterFactory newFactory(
+            final TypeAdapter<? super TT> typeAdapter, final Class<?>... classes) {
+        return new ExactFactory(typeAdapter, classes.clone());
     }
 
     public static <TT> TypeAdapterFactory newFactory(
@@ -336,51 +639,17 @@ public final class TypeAdapters {
 
     public static <TT> TypeAdapterFactory newFactory(
             final Class<TT> type, final TypeAdapter<TT> typeAdapter) {
-        return new TypeAdapterFactory() {
-            @SuppressWarnings("unchecked") // we use a runtime check to make sure the 'T's equal
-            public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
-                return typeToken.getRawType() == type ? (TypeAdapter<T>) typeAdapter : null;
-            }
-
-            @Override
-            public String toString() {
-                return "Factory[type=" + type.getName() + ",adapter=" + typeAdapter + "]";
-            }
-        };
+        return new ExactFactory(typeAdapter, type);
     }
 
     public static <TT> TypeAdapterFactory newFactory(
             final Class<TT> unboxed, final Class<TT> boxed, final TypeAdapter<? super TT> typeAdapter) {
-        return new TypeAdapterFactory() {
-            @SuppressWarnings("unchecked") // we use a runtime check to make sure the 'T's equal
-            public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
-                Class<? super T> rawType = typeToken.getRawType();
-                return (rawType == unboxed || rawType == boxed) ? (TypeAdapter<T>) typeAdapter : null;
-            }
-
-            @Override
-            public String toString() {
-                return "Factory[type=" + boxed.getName()
-                        + "+" + unboxed.getName() + ",adapter=" + typeAdapter + "]";
-            }
-        };
+        return new ExactFactory(typeAdapter, unboxed, boxed);
     }
 
     public static <TT> TypeAdapterFactory newFactoryForMultipleTypes(final Class<TT> base,
                                                                      final Class<? extends TT> sub, final TypeAdapter<? super TT> typeAdapter) {
-        return new TypeAdapterFactory() {
-            @SuppressWarnings("unchecked") // we use a runtime check to make sure the 'T's equal
-            public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
-                Class<? super T> rawType = typeToken.getRawType();
-                return (rawType == base || rawType == sub) ? (TypeAdapter<T>) typeAdapter : null;
-            }
-
-            @Override
-            public String toString() {
-                return "Factory[type=" + base.getName()
-                        + "+" + sub.getName() + ",adapter=" + typeAdapter + "]";
-            }
-        };
+        return new ExactFactory(typeAdapter, base, sub);
     }
 
     public static <TT> TypeAdapterFactory newTypeHierarchyFactory(
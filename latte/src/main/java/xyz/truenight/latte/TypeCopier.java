@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+/**
+ * Deep copy onto an existing value, consistent with {@link TypeAdapter#clone(Object)}.
+ * Implemented by the built-in adapters; values of adapters that don't implement it are
+ * cloned.
+ *
+ * @param <T> the type of object
+ */
+interface TypeCopier<T> {
+
+    /**
+     * Copies {@code source} onto {@code target} and returns {@code target}, or returns a clone
+     * of {@code source} if {@code target} can't be reused, see {@link CopyContext#reuse(Object, Object)}.
+     */
+    T copyInto(T source, T target, CopyContext context);
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+/**
+ * Reports where two values differ, consistent with {@link TypeAdapter#equal(Object, Object)}.
+ * Implemented by the built-in adapters; values of adapters that don't implement it are
+ * reported as a whole when they aren't equal.
+ * <p>
+ * Container adapters push the field, index or key of every child onto the
+ * {@link DiffContext} path before they descend into it.
+ *
+ * @param <T> the type of object
+ */
+interface TypeDiffer<T> {
+    void diff(T a, T b, DiffContext context);
+}
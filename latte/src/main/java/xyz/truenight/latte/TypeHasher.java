@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.truenight.latte;
+
+/**
+ * Deep hash code consistent with {@link TypeAdapter#equal(Object, Object)}: values the adapter
+ * considers equal have the same hash. Implemented by the built-in adapters; adapters that
+ * don't implement it are treated as hashing every value to {@code 0}.
+ * <p>
+ * Container adapters limit how deep they descend and don't follow cycles, so hashing
+ * terminates. Equal values whose cycles differ in length may hash differently.
+ *
+ * @param <T> the type of object
+ */
+public interface TypeHasher<T> {
+    int hash(T value);
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2016 Mikhail Frolov
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.truenight.latte;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Type;
+
+/**
+ * Array adapter for fields annotated with {@link UnorderedCollection}: arrays are equal when
+ * they hold the same elements the same number of times, in any order.
+ */
+public class UnorderedArrayTypeAdapter<E> extends ArrayTypeAdapter<E> {
+    public static TypeAdapterFactory newFactory(final Latte latte) {
+        return new TypeAdapterFactory() {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
+                Type type = typeToken.getType();
+                if (!(type instanceof GenericArrayType || type instanceof Class && ((Class<?>) type).isArray())) {
+                    return null;
+                }
+
+                Type componentType = $Types.getArrayComponentType(type);
+                TypeAdapter<?> componentTypeAdapter = latte.getAdapter(TypeToken.get(componentType));
+                return new UnorderedArrayTypeAdapter(latte,
+                        componentTypeAdapter, $Types.getRawType(componentType));
+            }
+        };
+    }
+
+    public UnorderedArrayTypeAdapter(Latte latte, TypeAdapter<E> componentTypeAdapter, Class<E> componentType) {
+        super(latte, componentTypeAdapter, componentType);
+    }
+
+    @Override
+    boolean equalElements(EqualContext context, Object a, Object b) {
+        return UnorderedCollectionTypeAdapter.sameElements(componentTypeAdapter, toArray(a), toArray(b));
+    }
+
+    /**
+     * Elements can't be told apart by index, so unequal arrays are reported as a whole.
+     */
+    @Override
+    public void diff(Object a, Object b, DiffContext context) {
+        if (!equal(a, b)) {
+            context.report();
+        }
+    }
+
+    /**
+     * Sum of the element hashes, so it doesn't depend on the order.
+     */
+    @Override
+    int hashElements(Object value) {
+        int hash = 0;
+        for (int i = 0, length = Array.getLength(value); i < length; i++) {
+            hash += elementHash(value, i);
+        }
+        return hash;
+    }
+
+    private static Object[] toArray(Object array) {
+        if (array instanceof Object[]) {
+            return (Object[]) array;
+        }
+        Object[] result = new Object[Array.getLength(array)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Array.get(array, i);
+        }
+        return result;
+    }
+}
@@ -18,84 +18,145 @@ package xyz.truenight.latte;
 
 import java.lang.reflect.Type;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
 
-public class UnorderedCollectionTypeAdapter<E> implements TypeAdapter<Collection<E>> {
+public class UnorderedCollectionTypeAdapter<E> implements TypeAdapter<Collection<E>>, TypeHasher<Collection<E>> {
 
-    public static final TypeAdapterFactory newFactory(final ConstructorConstructor constructorConstructor) {
+    public static final TypeAdapterFactory newFactory(final Latte latte, final ConstructorConstructor constructorConstructor) {
         return new TypeAdapterFactory() {
             @SuppressWarnings({"unchecked", "rawtypes"})
             public <T> TypeAdapter<T> create(TypeToken<T> typeToken) {
                 Type type = typeToken.getType();
 
                 Class<? super T> rawType = typeToken.getRawType();
+                if (rawType.isArray()) {
+                    return UnorderedArrayTypeAdapter.newFactory(latte).create(typeToken);
+                }
                 if (!Collection.class.isAssignableFrom(rawType)) {
                     return null;
                 }
 
                 Type elementType = $Types.getCollectionElementType(type, rawType);
-                TypeAdapter<?> elementTypeAdapter = Latte.getInstance().getAdapter(TypeToken.get(elementType));
+                TypeAdapter<?> elementTypeAdapter = latte.getAdapter(TypeToken.get(elementType));
                 ObjectConstructor<T> constructor = constructorConstructor.get(typeToken);
 
                 @SuppressWarnings({"unchecked", "rawtypes"}) // create() doesn't define a type parameter
-                        TypeAdapter<T> result = new UnorderedCollectionTypeAdapter(elementType, elementTypeAdapter, constructor);
+                        TypeAdapter<T> result = new UnorderedCollectionTypeAdapter(latte, elementType, elementTypeAdapter, constructor);
 
                 return result;
             }
         };
     }
 
-    private final TypeAdapter<E> elementTypeAdapter;
+    private final TypeAdapterRuntimeTypeWrapper<E> elementTypeAdapter;
     private final ObjectConstructor<? extends Collection<E>> constructor;
 
-    public UnorderedCollectionTypeAdapter(Type elementType,
+    public UnorderedCollectionTypeAdapter(Latte latte, Type elementType,
                                           TypeAdapter<E> elementTypeAdapter, ObjectConstructor<? extends Collection<E>> constructor) {
         this.elementTypeAdapter =
-                new TypeAdapterRuntimeTypeWrapper<E>(elementTypeAdapter, elementType);
+                new TypeAdapterRuntimeTypeWrapper<E>(latte, elementTypeAdapter, elementType);
         this.constructor = constructor;
     }
 
     @Override
     public boolean equal(Collection<E> a, Collection<E> b) {
-        Boolean equal = Latte.check(a, b);
-        if (equal != null) return equal;
+        Boolean check = Latte.check(a, b);
+        if (check != null) return check;
 
         if (a.size() != b.size()) {
             return false;
         }
 
-        Iterator<E> aIterator = a.iterator();
+        EqualContext context = EqualContext.enter();
+        try {
+            int state = context.begin(this, a, b);
+            if (state != EqualContext.NEW) {
+                return state == EqualContext.EQUAL;
+            }
+            boolean equal = equalElements(a, b);
+            context.end(this, a, b, equal);
+            return equal;
+        } finally {
+            context.exit();
+        }
+    }
 
-        while (aIterator.hasNext()) {
-            E aValue = aIterator.next();
+    private boolean equalElements(Collection<E> a, Collection<E> b) {
+        return sameElements(elementTypeAdapter, a.toArray(), b.toArray());
+    }
 
-            if (!contains(b, aValue)) {
+    /**
+     * Checks that {@code a} and {@code b} hold the same elements the same number of times,
+     * in any order. Both arrays must be of the same length.
+     */
+    @SuppressWarnings("unchecked")
+    static <E> boolean sameElements(TypeAdapterRuntimeTypeWrapper<E> adapter, Object[] a, Object[] b) {
+        HashIndex<E> index = new HashIndex<>(adapter, b);
+        for (Object element : a) {
+            if (index.match((E) element) == -1) {
                 return false;
             }
         }
         return true;
     }
 
-    private boolean contains(Collection<E> where, E what) {
-        for (E k : where) {
-            if (elementTypeAdapter.equal(k, what)) {
-                return true;
+    /**
+     * Sum of the element hashes, so it doesn't depend on the order.
+     */
+    @Override
+    public int hash(Collection<E> value) {
+        if (value == null) {
+            return 0;
+        }
+        HashContext context = HashContext.enter(value);
+        if (context == null) {
+            return 0;
+        }
+        try {
+            int hash = 0;
+            if (value instanceof RandomAccess && value instanceof List) {
+                List<E> list = (List<E>) value;
+                for (int i = 0, size = list.size(); i < size; i++) {
+                    hash += elementTypeAdapter.hash(list.get(i));
+                }
+            } else {
+                for (E e : value) {
+                    hash += elementTypeAdapter.hash(e);
+                }
             }
+            return hash;
+        } finally {
+            context.exit();
         }
-        return false;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public Collection<E> clone(Collection<E> value) {
         if (value == null) {
             return null;
         }
 
-        Collection<E> collection = constructor.construct();
-        for (E e : value) {
-            E instance = elementTypeAdapter.clone(e);
-            collection.add(instance);
+        CloneContext context = CloneContext.enter();
+        try {
+            Collection<E> copy = (Collection<E>) context.get(value);
+            if (copy != null) {
+                return copy;
+            }
+
+            Collection<E> collection = constructor.construct();
+            Object registered = context.put(value, collection);
+            if (registered != collection) {
+                return (Collection<E>) registered;
+            }
+            for (E e : value) {
+                E instance = elementTypeAdapter.clone(e);
+                collection.add(instance);
+            }
+            return collection;
+        } finally {
+            context.exit();
         }
-        return collection;
     }
 }
@@ -2,15 +2,38 @@ package xyz.truenight.latte;
 
 import org.junit.Test;
 
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -84,6 +107,666 @@ public class UnitTest {
         System.out.println(th.toString());
     }
 
+    @Test
+    public void primitiveFieldsTest() throws Exception {
+        PrimitiveObject one = new PrimitiveObject();
+        one.i = 1;
+        one.l = 2L;
+        one.d = Double.NaN;
+        one.f = -0f;
+        one.z = true;
+        one.c = 'c';
+        PrimitiveObject two = Latte.clone(one);
+
+        assertFalse(one == two);
+        assertTrue(Latte.equal(one, two));
+
+        two.f = 0f;
+        assertFalse(Latte.equal(one, two));
+    }
+
+    @Test
+    public void sharedReferenceCloneTest() throws Exception {
+        Node shared = new Node();
+        Node one = new Node();
+        Node two = new Node();
+        one.left = shared;
+        one.right = shared;
+        one.next = two;
+        two.next = one; // cycle longer than a self reference
+
+        Node clone = Latte.clone(one);
+
+        assertFalse(clone == one);
+        assertFalse(clone.left == shared);
+        assertTrue(clone.left == clone.right);
+        assertTrue(clone.next.next == clone);
+        assertTrue(Latte.equal(one, clone));
+
+        clone.next.left = new Node();
+        assertFalse(Latte.equal(one, clone));
+    }
+
+    @Test
+    public void sharedReferenceEqualTest() throws Exception {
+        // every level references the one below twice, 2^40 paths without memoization
+        Node one = new Node();
+        Node two = new Node();
+        for (int i = 0; i < 40; i++) {
+            Node nextOne = new Node();
+            nextOne.left = one;
+            nextOne.right = one;
+            one = nextOne;
+            Node nextTwo = new Node();
+            nextTwo.left = two;
+            nextTwo.right = two;
+            two = nextTwo;
+        }
+
+        assertTrue(Latte.equal(one, two));
+    }
+
+    @Test
+    public void unorderedMultiplicityTest() throws Exception {
+        UnorderedObject one = new UnorderedObject();
+        one.strings = Arrays.asList("x", "x", "y");
+        one.ints = new int[]{1, 1, 2};
+        UnorderedObject two = new UnorderedObject();
+        two.strings = Arrays.asList("y", "x", "x");
+        two.ints = new int[]{2, 1, 1};
+
+        assertTrue(Latte.equal(one, two));
+
+        two.strings = Arrays.asList("x", "y", "y");
+        assertFalse(Latte.equal(one, two));
+
+        two.strings = Arrays.asList("y", "x", "x");
+        two.ints = new int[]{1, 2, 2};
+        assertFalse(Latte.equal(one, two));
+    }
+
+    @Test
+    public void unorderedAndOrderedSharedListTest() throws Exception {
+        // the same pair of lists is equal unordered but not ordered
+        List<Integer> a = Arrays.asList(1, 2);
+        List<Integer> b = Arrays.asList(2, 1);
+        MixedOrderObject one = new MixedOrderObject();
+        one.unordered = a;
+        one.ordered = a;
+        MixedOrderObject two = new MixedOrderObject();
+        two.unordered = b;
+        two.ordered = b;
+
+        assertFalse(Latte.equal(one, two));
+        assertEquals(Collections.singletonList("ordered[0]"), Latte.diff(one, two).subList(0, 1));
+
+        two.ordered = a;
+        assertTrue(Latte.equal(one, two));
+    }
+
+    @Test
+    public void hashTest() throws Exception {
+        TestObject one = getTestObject();
+        TestObject two = Latte.clone(one);
+        two.should = new Object();
+        assertTrue(Latte.equal(one, two));
+        assertEquals(Latte.hash(one), Latte.hash(two));
+
+        // @UnorderedCollection hash ignores the order
+        two.what = new ArrayList<>(one.what);
+        Collections.reverse((List<TestObject>) two.what);
+        assertTrue(Latte.equal(one, two));
+        assertEquals(Latte.hash(one), Latte.hash(two));
+
+        Node node = new Node();
+        node.next = new Node();
+        node.next.next = node;
+        Node clone = Latte.clone(node);
+        assertEquals(Latte.hash(node), Latte.hash(clone));
+
+        // a two-node cycle equals a self-loop but hashes differently, unordered
+        // collections still match them
+        Node loop = new Node();
+        loop.next = loop;
+        assertTrue(Latte.equal(node, loop));
+        UnorderedNodes cycles = new UnorderedNodes();
+        cycles.nodes = Arrays.asList(node, new Node());
+        UnorderedNodes loops = new UnorderedNodes();
+        loops.nodes = Arrays.asList(new Node(), loop);
+        assertTrue(Latte.equal(cycles, loops));
+    }
+
+    @Test
+    public void randomAccessSetHashTest() throws Exception {
+        RandomAccessSet<String> set = new RandomAccessSet<>();
+        set.add("a");
+        set.add("b");
+        assertEquals(Latte.hash(set), Latte.hash(Latte.clone(set)));
+
+        RandomAccessHolder holder = new RandomAccessHolder();
+        holder.values = set;
+        assertEquals(Latte.hash(holder), Latte.hash(Latte.clone(holder)));
+    }
+
+    @Test
+    public void mapKeyTest() throws Exception {
+        MapObject one = new MapObject();
+        one.byName = new HashMap<>();
+        one.byPath = new HashMap<>();
+        MapObject two = new MapObject();
+        two.byName = new TreeMap<>();
+        two.byPath = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            one.byName.put("key" + i, i);
+            two.byName.put("key" + (99 - i), 99 - i);
+            one.byPath.put(Arrays.asList("root", "node" + i), "value" + i);
+            two.byPath.put(new ArrayList<>(Arrays.asList("root", "node" + (99 - i))), "value" + (99 - i));
+        }
+
+        assertTrue(Latte.equal(one, two));
+
+        two.byName.put("key0", -1);
+        assertFalse(Latte.equal(one, two));
+
+        two.byName.put("key0", 0);
+        two.byPath.put(Arrays.asList("root", "node0"), "changed");
+        assertFalse(Latte.equal(one, two));
+    }
+
+    @Test
+    public void wrappedMapKeyTest() throws Exception {
+        MapObject one = new MapObject();
+        one.byName = new HashMap<>();
+        Map<String, Integer> identity = new IdentityHashMap<>();
+        MapObject two = new MapObject();
+        two.byName = Collections.unmodifiableMap(identity);
+        for (int i = 0; i < 10; i++) {
+            one.byName.put("key" + i, i);
+            identity.put(new String("key" + i), i);
+        }
+
+        assertTrue(Latte.equal(one, two));
+        assertTrue(Latte.equal(two, one));
+
+        one.byName.put(null, -1);
+        identity.put(null, -1);
+        assertTrue(Latte.equal(one, two));
+
+        two.byName = new HashMap<>(one.byName);
+        assertTrue(Latte.equal(one, two));
+
+        two.byName = new TreeMap<>();
+        for (int i = 0; i < 11; i++) {
+            two.byName.put("key" + i, i);
+        }
+        assertFalse(Latte.equal(one, two));
+        assertFalse(Latte.equal(two, one));
+    }
+
+    @Test
+    public void arrayTest() throws Exception {
+        ArrayObject one = new ArrayObject();
+        one.doubles = new double[]{1.5, Double.NaN, -0.0};
+        one.same = one.doubles;
+        one.objects = new String[]{"a", "b"};
+        one.matrix = new int[][]{{1, 2}, {3}};
+
+        ArrayObject two = Latte.clone(one);
+        assertNotSame(one.doubles, two.doubles);
+        assertSame(two.doubles, two.same);
+        assertTrue(two.objects instanceof String[]);
+        assertNotSame(one.matrix[0], two.matrix[0]);
+        assertTrue(Latte.equal(one, two));
+        assertEquals(Latte.hash(one), Latte.hash(two));
+
+        two.matrix[1][0] = 4;
+        assertFalse(Latte.equal(one, two));
+
+        two.matrix[1][0] = 3;
+        two.doubles[2] = 0.0;
+        assertFalse(Latte.equal(one, two));
+    }
+
+    @Test
+    public void immutableTest() throws Exception {
+        Money money = new Money(new BigDecimal("1.50"), "EUR");
+        assertSame(money, Latte.clone(money));
+
+        Tag tag = new Tag();
+        tag.name = "tag";
+        assertSame(tag, Latte.clone(tag));
+
+        Node node = new Node();
+        assertNotSame(node, Latte.clone(node));
+    }
+
+    @Test
+    public void lazyCloneTest() throws Exception {
+        Latte latte = new Latte.Builder().lazyClone(true).create();
+        LazyObject one = new LazyObject();
+        one.nodes = new ArrayList<>(Arrays.asList(new Node(), new Node()));
+        one.byName = new HashMap<>();
+        one.byName.put("a", new ArrayList<>(Arrays.asList("x", "y")));
+
+        LazyObject two = latte.cloneItem(one);
+        assertFalse(two.nodes instanceof ArrayList);
+        assertTrue(latte.isEqual(one, two));
+        assertEquals(latte.hashItem(one), latte.hashItem(two));
+
+        LazyObject three = latte.cloneItem(one);
+        // once read, the views don't follow the source
+        assertTrue(latte.isEqual(one, three));
+        one.nodes.add(new Node());
+        one.byName.put("b", new ArrayList<String>());
+        assertEquals(2, three.nodes.size());
+        assertNotSame(one.nodes.get(0), three.nodes.get(0));
+        assertEquals(1, three.byName.size());
+        assertEquals(Arrays.asList("x", "y"), three.byName.get("a"));
+        assertNotSame(one.byName.get("a"), three.byName.get("a"));
+    }
+
+    @Test
+    public void lazyCloneIsolationTest() throws Exception {
+        Latte latte = new Latte.Builder().lazyClone(true).create();
+        Node shared = new Node();
+        LazyObject one = new LazyObject();
+        one.nodes = new LinkedList<>(Arrays.asList(shared, new Node()));
+        one.marked = new HashSet<>(Collections.singletonList(shared));
+        one.byName = new TreeMap<>();
+        one.byName.put("b", new ArrayList<>(Collections.singletonList("x")));
+
+        LazyObject two = latte.cloneItem(one);
+        assertTrue(latte.isEqual(one, two));
+        // elements changed in place after the views are read don't show in them
+        shared.next = new Node();
+        one.byName.get("b").add("y");
+        assertNull(two.nodes.get(0).next);
+        assertEquals(Collections.singletonList("x"), two.byName.get("b"));
+        // an element held by two views is cloned once
+        assertSame(two.nodes.get(0), two.marked.iterator().next());
+        // the map is built as the class of the source
+        two.byName.put("a", new ArrayList<String>());
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(two.byName.keySet()));
+    }
+
+    @Test
+    public void lazyCloneReadsOnDemandTest() throws Exception {
+        Latte latte = new Latte.Builder().lazyClone(true).create();
+        CountedObject one = new CountedObject();
+        one.items = new ArrayList<>();
+        one.byName = new HashMap<>();
+        for (int i = 0; i < 4; i++) {
+            one.items.add(new Counted(i));
+            one.byName.put(String.valueOf(i), new Counted(i));
+        }
+
+        CountingAdapter.CLONES.set(0);
+        CountedObject two = latte.cloneItem(one);
+        // views that are never read clone no elements
+        assertEquals(0, CountingAdapter.CLONES.get());
+        assertEquals(4, two.items.size());
+        assertEquals(0, CountingAdapter.CLONES.get());
+        // a list clones the elements that are read, once
+        assertEquals(2, two.items.get(2).value);
+        assertSame(two.items.get(2), two.items.get(2));
+        assertEquals(1, CountingAdapter.CLONES.get());
+        // a map clones its entries on first use
+        assertEquals(1, two.byName.get("1").value);
+        assertEquals(5, CountingAdapter.CLONES.get());
+        assertTrue(latte.isEqual(one, two));
+        assertEquals(8, CountingAdapter.CLONES.get());
+    }
+
+    @Test
+    public void parallelCloneTest() throws Exception {
+        Latte latte = new Latte.Builder().parallelClone(16, new ForkJoinPool(4)).create();
+        Node shared = new Node();
+        LazyObject one = new LazyObject();
+        one.nodes = new ArrayList<>();
+        one.byName = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            Node node = new Node();
+            node.left = shared;
+            node.next = i > 0 ? one.nodes.get(i - 1) : null;
+            one.nodes.add(node);
+            one.byName.put(String.valueOf(i), Arrays.asList("x", String.valueOf(i)));
+        }
+
+        LazyObject two = latte.cloneItem(one);
+        assertTrue(latte.isEqual(one, two));
+        assertEquals(1000, two.nodes.size());
+        for (int i = 0; i < 1000; i++) {
+            assertNotSame(one.nodes.get(i), two.nodes.get(i));
+            assertNotSame(shared, two.nodes.get(i).left);
+        }
+        assertSame(two.nodes.get(998), two.nodes.get(999).next);
+        assertEquals(Arrays.asList("x", "500"), two.byName.get("500"));
+
+        Node[] array = one.nodes.toArray(new Node[0]);
+        Node[] copy = latte.cloneItem(array);
+        assertTrue(latte.isEqual(array, copy));
+        assertNotSame(array[0], copy[0]);
+    }
+
+    @Test
+    public void parallelCloneAliasingTest() throws Exception {
+        Latte latte = new Latte.Builder().parallelClone(4, new ForkJoinPool(4)).create();
+        Node shared = new Node();
+        shared.next = shared;
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Node node = new Node();
+            node.left = shared;
+            nodes.add(node);
+        }
+
+        // every leaf task reaches the shared node, it is still cloned once
+        List<Node> copy = latte.cloneItem(nodes);
+        Node sharedCopy = copy.get(0).left;
+        assertNotSame(shared, sharedCopy);
+        assertSame(sharedCopy, sharedCopy.next);
+        for (Node node : copy) {
+            assertSame(sharedCopy, node.left);
+        }
+
+        Node[] array = latte.cloneItem(nodes.toArray(new Node[0]));
+        for (Node node : array) {
+            assertSame(array[0].left, node.left);
+        }
+    }
+
+    @Test
+    public void parallelEqualTest() throws Exception {
+        Latte latte = new Latte.Builder().parallelEqual(16, new ForkJoinPool(4)).create();
+        LazyObject one = new LazyObject();
+        one.nodes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Node node = new Node();
+            node.right = node;
+            node.next = i > 0 ? one.nodes.get(i - 1) : null;
+            node.left = i % 7 == 0 ? new Node() : null;
+            one.nodes.add(node);
+        }
+
+        LazyObject two = Latte.clone(one);
+        assertTrue(latte.isEqual(one, two));
+        assertTrue(latte.isEqual(one.nodes.toArray(), two.nodes.toArray()));
+
+        two.nodes.get(500).left = new Node();
+        assertFalse(latte.isEqual(one, two));
+        assertFalse(latte.isEqual(one.nodes.toArray(), two.nodes.toArray()));
+        assertEquals(Latte.equal(one, two), latte.isEqual(one, two));
+    }
+
+    @Test
+    public void parallelEqualDifferenceTest() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ChainedList one = new ChainedList();
+        one.items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ChainedObject item = new ChainedObject();
+            item.label = "item";
+            // compared in parallel too, cut short once a sibling finds the difference
+            item.nodes = new ArrayList<>();
+            for (int j = 0; j < 64; j++) {
+                Node node = new Node();
+                node.next = j > 0 ? item.nodes.get(j - 1) : null;
+                item.nodes.add(node);
+            }
+            one.items.add(item);
+        }
+        ChainedList two = Latte.clone(one);
+        two.items.get(500).label = "changed";
+
+        for (int i = 0; i < 10; i++) {
+            LatteMetrics metrics = new LatteMetrics();
+            Latte latte = new Latte.Builder().parallelEqual(16, pool).listener(metrics).create();
+            assertFalse(latte.isEqual(one, two));
+            // leaves cut short by the difference don't report one of their own
+            LatteMetrics.TypeMetrics type = metrics.getTypes().get(ChainedList.class);
+            assertEquals(1, type.getNotEqual());
+            assertEquals(ChainedObject.class.getName() + ".label", type.getLastDifference());
+        }
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        LatteMetrics metrics = new LatteMetrics();
+        Latte latte = new Latte.Builder().listener(metrics).create();
+        LazyObject one = new LazyObject();
+        one.nodes = new ArrayList<>(Arrays.asList(new Node(), new Node(), new Node()));
+
+        LazyObject two = latte.cloneItem(one);
+        assertTrue(latte.isEqual(one, two));
+        two.nodes.get(1).left = new Node();
+        assertFalse(latte.isEqual(one, two));
+
+        LatteMetrics.TypeMetrics type = metrics.getTypes().get(LazyObject.class);
+        assertEquals(1, type.getClones());
+        assertEquals(5, type.getClonedNodes());
+        assertEquals(2, type.getEquals());
+        assertEquals(1, type.getNotEqual());
+        assertEquals(Node.class.getName() + ".left", type.getLastDifference());
+        assertTrue(metrics.getCacheHits() > 0);
+        assertTrue(metrics.getCacheMisses() > 0);
+        assertTrue(type.getEqualLatency().getPercentile(1) > 0);
+    }
+
+    @Test
+    public void adapterLookupCountTest() throws Exception {
+        LatteMetrics metrics = new LatteMetrics();
+        Latte latte = new Latte.Builder().listener(metrics).create();
+        long hits = metrics.getCacheHits();
+        long misses = metrics.getCacheMisses();
+
+        // a miss through getAdapter(Class) is reported once
+        latte.getAdapter(String.class);
+        assertEquals(misses + 1, metrics.getCacheMisses());
+        assertEquals(hits, metrics.getCacheHits());
+
+        // the raw type cache isn't reported
+        latte.getAdapter(String.class);
+        assertEquals(hits, metrics.getCacheHits());
+
+        latte.getAdapter(TypeToken.get(String.class));
+        assertEquals(hits + 1, metrics.getCacheHits());
+        assertEquals(misses + 1, metrics.getCacheMisses());
+    }
+
+    @Test
+    public void diffTest() throws Exception {
+        LazyObject one = new LazyObject();
+        one.nodes = new ArrayList<>(Arrays.asList(new Node(), new Node()));
+        one.nodes.get(0).next = one.nodes.get(0);
+        one.byName = new HashMap<>();
+        one.byName.put("two", new ArrayList<>(Arrays.asList("x", "y")));
+        one.byName.put("three", new ArrayList<String>());
+
+        LazyObject two = Latte.clone(one);
+        assertTrue(Latte.diff(one, two).isEmpty());
+
+        two.nodes.get(1).left = new Node();
+        two.nodes.add(new Node());
+        two.byName.get("two").set(1, "z");
+        two.byName.remove("three");
+        two.byName.put("four", new ArrayList<String>());
+        List<String> diff = Latte.diff(one, two);
+        assertEquals(5, diff.size());
+        assertTrue(diff.contains("nodes[1].left"));
+        assertTrue(diff.contains("nodes[2]"));
+        assertTrue(diff.contains("byName[\"two\"][1]"));
+        assertTrue(diff.contains("byName[\"three\"]"));
+        assertTrue(diff.contains("byName[\"four\"]"));
+
+        assertEquals(2, Latte.getInstance().diffItem(one, two, 2).size());
+        assertEquals(Collections.singletonList(""), Latte.diff(one, null));
+    }
+
+    @Test
+    public void copyIntoTest() throws Exception {
+        Node shared = new Node();
+        LazyObject one = new LazyObject();
+        one.nodes = new ArrayList<>(Arrays.asList(new Node(), new Node(), new Node()));
+        one.nodes.get(0).next = one.nodes.get(0);
+        one.nodes.get(1).left = shared;
+        one.nodes.get(2).left = shared;
+        one.byName = new HashMap<>();
+        one.byName.put("a", new ArrayList<>(Arrays.asList("x", "y")));
+
+        LazyObject target = Latte.clone(one);
+        Node first = target.nodes.get(0);
+        List<String> unchanged = new ArrayList<>();
+        assertSame(target, Latte.getInstance().copyItemInto(one, target, unchanged));
+        assertTrue(unchanged.isEmpty());
+
+        one.nodes.get(1).right = new Node();
+        one.nodes.add(new Node());
+        one.byName.put("b", new ArrayList<String>());
+        List<String> changed = new ArrayList<>();
+        LazyObject copy = Latte.getInstance().copyItemInto(one, target, changed);
+        assertSame(target, copy);
+        assertTrue(Latte.equal(one, copy));
+        assertSame(first, copy.nodes.get(0));
+        assertSame(copy.nodes.get(0), copy.nodes.get(0).next);
+        assertSame(copy.nodes.get(1).left, copy.nodes.get(2).left);
+        assertNotSame(shared, copy.nodes.get(1).left);
+        assertEquals(Arrays.asList("nodes[1].right", "nodes[3]", "byName[\"b\"]"), changed);
+
+        // the target shares a node the source doesn't
+        target.nodes.set(1, target.nodes.get(0));
+        copy = Latte.copyInto(one, target);
+        assertTrue(Latte.equal(one, copy));
+        assertNotSame(copy.nodes.get(0), copy.nodes.get(1));
+    }
+
+    @Test
+    public void instanceTest() throws Exception {
+        Latte latte = new Latte.Builder()
+                .instanceCreator(List.class, new InstanceCreator<List<?>>() {
+                    @Override
+                    public List<?> createInstance(Type type) {
+                        return new LinkedList<>();
+                    }
+                })
+                .create();
+        assertSame(Latte.getInstance(), Latte.getInstance());
+        assertNotSame(Latte.getInstance().getAdapter(Node.class), latte.getAdapter(Node.class));
+
+        LazyObject one = new LazyObject();
+        one.nodes = new ArrayList<>(Arrays.asList(new Node(), new Node()));
+        assertTrue(latte.cloneItem(one).nodes instanceof LinkedList);
+        assertTrue(Latte.clone(one).nodes instanceof ArrayList);
+    }
+
+    @Test
+    public void preloadTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        LatteMetrics metrics = new LatteMetrics();
+        Latte latte = new Latte.Builder()
+                .listener(metrics)
+                .preload(executor, LazyObject.class, ArrayList.class, Node.class)
+                .create();
+        assertTrue(latte.preloaded().get().isEmpty());
+
+        long misses = metrics.getCacheMisses();
+        LazyObject one = new LazyObject();
+        one.nodes = new ArrayList<>(Arrays.asList(new Node(), new Node()));
+        assertTrue(latte.isEqual(one, latte.cloneItem(one)));
+        assertEquals(misses, metrics.getCacheMisses());
+
+        executor.shutdown();
+        LatteMetrics failed = new LatteMetrics();
+        Map<Class<?>, Throwable> failures = new Latte.Builder()
+                .listener(failed)
+                .preload(executor, Node.class)
+                .create()
+                .preloaded()
+                .get();
+        assertTrue(failures.get(Node.class) instanceof RejectedExecutionException);
+        assertEquals(1, failed.getPreloadFailures());
+    }
+
+    @Test
+    public void fieldPlansTest() throws Exception {
+        File file = File.createTempFile("latte", ".plans");
+        assertTrue(file.delete());
+        Latte latte = new Latte.Builder().fieldPlans(file).create();
+        latte.getAdapter(MapObject.class);
+        latte.saveFieldPlans();
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertTrue(lines.contains(MapObject.class.getName()
+                + "\tbyPath\t0\t0\t0\tjava.util.Map<java.util.List<java.lang.String>,java.lang.String>"));
+
+        MapObject one = new MapObject();
+        one.byName = new HashMap<>();
+        MapObject two = new MapObject();
+        two.byName = new HashMap<>();
+        two.byName.put("a", 1);
+
+        // a plan that matches the classes is used as is
+        List<String> ignored = new ArrayList<>();
+        for (String line : lines) {
+            ignored.add(line.replace("\tbyName\t0\t0", "\tbyName\t0\t1"));
+        }
+        Files.write(file.toPath(), ignored, StandardCharsets.UTF_8);
+        assertTrue(new Latte.Builder().fieldPlans(file).create().isEqual(one, two));
+
+        // a stale one is scanned again
+        List<String> stale = new ArrayList<>();
+        for (String line : ignored) {
+            stale.add(line.startsWith(MapObject.class.getName() + "\t")
+                    ? line.replaceFirst("\t[0-9a-f]+\t", "\t0\t") : line);
+        }
+        Files.write(file.toPath(), stale, StandardCharsets.UTF_8);
+        latte = new Latte.Builder().fieldPlans(file).create();
+        assertFalse(latte.isEqual(one, two));
+        latte.saveFieldPlans();
+        assertTrue(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).containsAll(lines));
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void generatedAdapterLookupTest() throws Exception {
+        LatteMetrics metrics = new LatteMetrics();
+        Latte latte = new Latte.Builder().generatedAdapters(true).listener(metrics).create();
+        TypeAdapter<?> adapter = latte.getAdapter(HandWrittenObject.class);
+        assertTrue(adapter instanceof UnitTest_HandWrittenObject_LatteAdapter);
+        assertSame(latte, ((UnitTest_HandWrittenObject_LatteAdapter) adapter).latte);
+
+        HandWrittenObject one = new HandWrittenObject();
+        one.id = 1;
+        one.name = "one";
+        HandWrittenObject two = new HandWrittenObject();
+        two.id = 1;
+        assertTrue(latte.isEqual(one, two));
+        assertFalse(Latte.equal(one, two));
+
+        // types the registry doesn't know, and registries are off by default
+        assertTrue(latte.getAdapter(PrimitiveObject.class) instanceof ReflectiveAdapter);
+        assertTrue(Latte.getInstance().getAdapter(HandWrittenObject.class) instanceof ReflectiveAdapter);
+        assertEquals(0, metrics.getAdapterFailures());
+
+        // a failing adapter is reported and falls back to reflection
+        assertTrue(latte.getAdapter(BrokenObject.class) instanceof ReflectiveAdapter);
+        assertEquals(1, metrics.getAdapterFailures());
+    }
+
+    @Test
+    public void annotationAdapterTest() throws Exception {
+        Latte latte = new Latte.Builder().create();
+        TypeAdapter<?> adapter = latte.getAdapter(AdaptedObject.class);
+        assertTrue(adapter instanceof CustomAdapter);
+        assertSame(adapter, latte.getAdapter(AdaptedObject.class));
+        AdaptedObject one = new AdaptedObject();
+        assertSame(one, latte.cloneItem(one));
+
+        Field field = UnorderedObject.class.getDeclaredField("strings");
+        TypeToken<?> type = TypeToken.get(field.getGenericType());
+        UnorderedCollection annotation = field.getAnnotation(UnorderedCollection.class);
+        assertSame(latte.getAnnotationTypeAdapter(type, annotation),
+                latte.getAnnotationTypeAdapter(type, annotation));
+    }
+
     private TestObject getTestObject() {
         TestObject hello;
         hello = new TestObject();
@@ -189,6 +872,137 @@ public class UnitTest {
         }
     }
 
+    static class Node {
+        Node left;
+        Node right;
+        Node next;
+    }
+
+    @UseAdapter(CustomAdapter.class)
+    class AdaptedObject extends TestObject {
+    }
+
+    static class HandWrittenObject {
+        int id;
+        String name;
+    }
+
+    static class RandomAccessSet<E> extends LinkedHashSet<E> implements RandomAccess {
+    }
+
+    static class ChainedList {
+        List<ChainedObject> items;
+    }
+
+    static class ChainedObject {
+        List<Node> nodes;
+        String label;
+    }
+
+    static class UnorderedNodes {
+        @UnorderedCollection
+        List<Node> nodes;
+    }
+
+    static class RandomAccessHolder {
+        @UnorderedCollection
+        Collection<String> values;
+    }
+
+    static class BrokenObject {
+        int id;
+    }
+
+    static class UnorderedObject {
+        @UnorderedCollection
+        List<String> strings;
+
+        @UnorderedCollection
+        int[] ints;
+    }
+
+    static class MixedOrderObject {
+        @UnorderedCollection
+        List<Integer> unordered;
+        List<Integer> ordered;
+    }
+
+    static class MapObject {
+        Map<String, Integer> byName;
+        Map<List<String>, String> byPath;
+    }
+
+    static class ArrayObject {
+        double[] doubles;
+        double[] same;
+        Object[] objects;
+        int[][] matrix;
+    }
+
+    static final class Money {
+        final BigDecimal amount;
+        final String currency;
+
+        Money(BigDecimal amount, String currency) {
+            this.amount = amount;
+            this.currency = currency;
+        }
+    }
+
+    @Immutable
+    static class Tag {
+        String name;
+    }
+
+    static class LazyObject {
+        List<Node> nodes;
+        Set<Node> marked;
+        Map<String, List<String>> byName;
+    }
+
+    static class CountedObject {
+        List<Counted> items;
+        Map<String, Counted> byName;
+    }
+
+    @UseAdapter(CountingAdapter.class)
+    static class Counted {
+        int value;
+
+        Counted(int value) {
+            this.value = value;
+        }
+    }
+
+    public static class CountingAdapter implements TypeAdapter<Counted> {
+        static final AtomicInteger CLONES = new AtomicInteger();
+
+        @Override
+        public boolean equal(Counted a, Counted b) {
+            return a == b || a != null && b != null && a.value == b.value;
+        }
+
+        @Override
+        public Counted clone(Counted value) {
+            if (value == null) {
+                return null;
+            }
+            CLONES.incrementAndGet();
+            return new Counted(value.value);
+        }
+    }
+
+    static class PrimitiveObject {
+        int i;
+        long l;
+        double d;
+        float f;
+        boolean z;
+        byte b;
+        short s;
+        char c;
+    }
+
     public class CustomAdapter implements TypeAdapter<TestObject> {
 
         @Override
@@ -0,0 +1,18 @@
+package xyz.truenight.latte;
+
+/**
+ * Registry of the hand-written adapters of {@link UnitTest}, listed like a generated one.
+ */
+public class UnitTestAdapterRegistry implements AdapterRegistry {
+
+    @Override
+    public TypeAdapter<?> create(Latte latte, Class<?> type) {
+        if (type == UnitTest.HandWrittenObject.class) {
+            return new UnitTest_HandWrittenObject_LatteAdapter(latte);
+        }
+        if (type == UnitTest.BrokenObject.class) {
+            throw new IllegalStateException("broken adapter");
+        }
+        return null;
+    }
+}
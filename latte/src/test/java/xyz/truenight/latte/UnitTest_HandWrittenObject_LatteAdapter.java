@@ -0,0 +1,29 @@
+package xyz.truenight.latte;
+
+/**
+ * Adapter of {@link UnitTest.HandWrittenObject} listed by {@link UnitTestAdapterRegistry},
+ * compares only the id.
+ */
+public class UnitTest_HandWrittenObject_LatteAdapter implements TypeAdapter<UnitTest.HandWrittenObject> {
+
+    final Latte latte;
+
+    public UnitTest_HandWrittenObject_LatteAdapter(Latte latte) {
+        this.latte = latte;
+    }
+
+    @Override
+    public boolean equal(UnitTest.HandWrittenObject a, UnitTest.HandWrittenObject b) {
+        return a == b || a != null && b != null && a.id == b.id;
+    }
+
+    @Override
+    public UnitTest.HandWrittenObject clone(UnitTest.HandWrittenObject value) {
+        if (value == null) {
+            return null;
+        }
+        UnitTest.HandWrittenObject copy = new UnitTest.HandWrittenObject();
+        copy.id = value.id;
+        return copy;
+    }
+}